@@ -0,0 +1,149 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+
+import org.pathrate.core.SyntheticData.Distribution;
+
+/**
+ * Benchmarks the hot paths of the capacity estimation over synthetic distributions, at sample sizes from 1k to 1M.
+ * Compile and run it together with the sources, e.g.:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out src/org/pathrate/core/*.java bench/org/pathrate/core/*.java
+ * java -cp out org.pathrate.core.EstimationBenchmarks [max sample size] [filter]
+ * </pre>
+ *
+ * The sizes go up to 100k unless a larger maximum is given. Only benchmarks whose name contains the filter are run.
+ * <p>
+ * The numbers are indicative only: unlike JMH, the harness runs all the benchmarks in the same JVM, without forks, and
+ * guards against dead-code elimination and constant folding only by accumulating the results in a volatile sink.
+ */
+public class EstimationBenchmarks
+{
+	private static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+	private static final int DEFAULT_MAX_SIZE = 100000;
+	// The number of capacities added by a train
+	private static final int TRAIN_CAPACITIES = 100;
+	private static final int PACKET_SIZE = 1500;
+
+	public static void main(String[] args)
+	{
+		int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_SIZE;
+		String filter = args.length > 1 ? args[1] : "";
+		Stats.statisticsEnabled = false;
+
+		Microbenchmark.printHeader();
+		for (Distribution distribution : Distribution.values()) {
+			for (int size : SIZES) {
+				if (size > maxSize) {
+					continue;
+				}
+				for (Microbenchmark benchmark : createBenchmarks(distribution, size)) {
+					if (benchmark.toString().contains(filter)) {
+						benchmark.measure();
+					}
+				}
+			}
+		}
+	}
+
+	private static Microbenchmark[] createBenchmarks(Distribution distribution, int size)
+	{
+		String suffix = " " + distribution.name().toLowerCase() + " n=" + size;
+		final double[] capacities = SyntheticData.capacities(distribution, size, size);
+		final double[] train = SyntheticData.capacities(distribution, TRAIN_CAPACITIES, -size);
+		final double binWidth = MathHelper.calculateBinWidth(capacities);
+		final SortedDoubleMultiset multiset = new SortedDoubleMultiset();
+		multiset.addAll(capacities);
+		final long[] timestamps = SyntheticData.train(distribution, size, PACKET_SIZE, size);
+		final long[] deltas = SmartPathrate.calculateDeltas(timestamps, size);
+		final long minPossibleDelta = PACKET_SIZE * 8 * 1000L / 54;
+		final SmartPathrate pathrate = new SmartPathrate();
+
+		return new Microbenchmark[] {
+			new Microbenchmark("calculateBinWidth(double[])" + suffix) {
+				long run()
+				{
+					return (long) MathHelper.calculateBinWidth(capacities);
+				}
+			},
+			new Microbenchmark("calculateBinWidth(multiset)" + suffix) {
+				long run()
+				{
+					return (long) MathHelper.calculateBinWidth(multiset);
+				}
+			},
+			new Microbenchmark("extractMode" + suffix) {
+				private final boolean[] valid = new boolean[capacities.length];
+
+				void setUp()
+				{
+					Arrays.fill(valid, true);
+				}
+
+				long run()
+				{
+					MathHelper.Mode mode = MathHelper.extractMode(capacities, valid, binWidth);
+					return mode == null ? 0 : mode.modeCount;
+				}
+			},
+			new Microbenchmark("calculateModes" + suffix) {
+				long run()
+				{
+					return MathHelper.calculateModes(capacities, binWidth).length;
+				}
+			},
+			new Microbenchmark("IncrementalModeEstimator.getModes" + suffix) {
+				private IncrementalModeEstimator estimator;
+
+				void setUp()
+				{
+					// Rebuilt at each operation, otherwise the added trains would grow it beyond its size
+					estimator = new IncrementalModeEstimator(binWidth);
+					estimator.add(capacities);
+				}
+
+				long run()
+				{
+					// Adding a train invalidates the cached modes
+					estimator.add(train);
+					return estimator.getModes().length;
+				}
+			},
+			new Microbenchmark("mergeSortedArrays(+" + TRAIN_CAPACITIES + ")" + suffix) {
+				long run()
+				{
+					return ArrayHelper.mergeSortedArrays(capacities, train).length;
+				}
+			},
+			new Microbenchmark("SortedDoubleMultiset.addAll(+" + TRAIN_CAPACITIES + ")" + suffix) {
+				private SortedDoubleMultiset target;
+
+				void setUp()
+				{
+					// Rebuilt at each operation, like the estimator above
+					target = new SortedDoubleMultiset();
+					target.addAll(capacities);
+				}
+
+				long run()
+				{
+					target.addAll(train);
+					return target.size();
+				}
+			},
+			new Microbenchmark("calculateDeltas" + suffix) {
+				long run()
+				{
+					return SmartPathrate.calculateDeltas(timestamps, timestamps.length).length;
+				}
+			},
+			new Microbenchmark("calculateJumpsAndPlateaus" + suffix) {
+				long run()
+				{
+					return pathrate.calculateJumpsAndPlateaus(deltas, minPossibleDelta, 20000)[0].length;
+				}
+			},
+		};
+	}
+}
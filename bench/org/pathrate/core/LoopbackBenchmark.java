@@ -0,0 +1,168 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * Measures how fast trains can be sent and timestamped on this host, by running a probe sender and a probe receiver
+ * in the same JVM over the loopback interface. For each transport, payload size and train length it reports:
+ * <ul>
+ * <li>the packets per second received within a train;</li>
+ * <li>the fraction of lost packets;</li>
+ * <li>the jitter, i.e. the standard deviation of the dispersion between consecutive packets;</li>
+ * <li>the median and minimum dispersion, and the capacity corresponding to the median one, which is the highest
+ * capacity that can be measured on this host.</li>
+ * </ul>
+ * Compile and run it together with the sources, e.g.:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out src/org/pathrate/core/*.java bench/org/pathrate/core/*.java
+ * java -cp out org.pathrate.core.LoopbackBenchmark [trains per configuration]
+ * </pre>
+ */
+public class LoopbackBenchmark
+{
+	private static final int PORT = 48700;
+	private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+	private static final int HEADERS_SIZE = 28; // IP + UDP
+	private static final int[] PAYLOAD_SIZES = { 64, 512, 1472 };
+	private static final int[] TRAIN_LENGTHS = { 50, 200, 1000 };
+	private static final int TRAIN_SPACING = 20; // ms
+	private static final int RECEIVE_TIMEOUT = 200; // ms
+
+	public static void main(String[] args) throws Exception
+	{
+		int trains = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		// Let the JIT compile the send and receive paths first
+		for (SmartPathrate.Transport transport : SmartPathrate.Transport.values()) {
+			measure(transport, PAYLOAD_SIZES[0], TRAIN_LENGTHS[TRAIN_LENGTHS.length - 1], trains, false);
+		}
+		System.out.println(String.format(Stats.locale, "%-17s %7s %6s %12s %7s %10s %10s %10s %12s", "transport",
+				"payload", "length", "pkts/s", "loss %", "jitter µs", "median µs", "min µs", "max Mbps"));
+		for (SmartPathrate.Transport transport : SmartPathrate.Transport.values()) {
+			for (int payloadSize : PAYLOAD_SIZES) {
+				for (int trainLength : TRAIN_LENGTHS) {
+					measure(transport, payloadSize, trainLength, trains, true);
+				}
+			}
+		}
+	}
+
+	private static void measure(SmartPathrate.Transport transport, int payloadSize, int trainLength, int trains,
+			boolean report) throws Exception
+	{
+		IProbeSender sender;
+		IProbeReceiver receiver;
+		if (transport == SmartPathrate.Transport.DATAGRAM_CHANNEL) {
+			sender = new DatagramChannelProbeSender(BUFFER_SIZE);
+			receiver = new DatagramChannelProbeReceiver(PORT, BUFFER_SIZE, payloadSize);
+		}
+		else {
+			sender = new DatagramSocketProbeSender(BUFFER_SIZE);
+			receiver = new DatagramSocketProbeReceiver(PORT, BUFFER_SIZE, payloadSize);
+		}
+		ReceiverLoop loop = new ReceiverLoop(receiver, trains, trainLength);
+		Thread thread = new Thread(loop, "Loopback receiver");
+		try {
+			sender.setDestination(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), PORT),
+					new byte[payloadSize]);
+			thread.start();
+			for (int trainId = 0; trainId < trains; trainId++) {
+				sender.prepare(payloadSize, trainLength, trainId);
+				Thread.sleep(TRAIN_SPACING);
+				sender.sendTrain(trainId);
+			}
+			loop.done = true;
+			thread.join();
+		}
+		finally {
+			sender.close();
+			receiver.close();
+		}
+		if (loop.error != null) {
+			throw loop.error;
+		}
+		if (report) {
+			loop.report(transport, payloadSize);
+		}
+	}
+
+	/**
+	 * Timestamps the received packets, grouping them by train.
+	 */
+	private static class ReceiverLoop implements Runnable
+	{
+		private final IProbeReceiver receiver;
+		private final long[][] timestamps;
+		private final int[] received;
+		volatile boolean done;
+		IOException error;
+
+		ReceiverLoop(IProbeReceiver receiver, int trains, int trainLength)
+		{
+			this.receiver = receiver;
+			this.timestamps = new long[trains][trainLength];
+			this.received = new int[trains];
+		}
+
+		public void run()
+		{
+			try {
+				while (true) {
+					if (!receiver.receive(RECEIVE_TIMEOUT)) {
+						if (done) {
+							return;
+						}
+						continue;
+					}
+					long now = System.nanoTime();
+					int trainId = receiver.getTrainId();
+					if (trainId >= 0 && trainId < received.length && received[trainId] < timestamps[trainId].length) {
+						timestamps[trainId][received[trainId]++] = now;
+					}
+				}
+			}
+			catch (IOException e) {
+				error = e;
+			}
+		}
+
+		void report(SmartPathrate.Transport transport, int payloadSize)
+		{
+			int trainLength = timestamps[0].length;
+			double[] rates = new double[timestamps.length];
+			// Only the trains with at least two packets are measured
+			int totalReceived = 0, deltaCount = 0, measuredTrains = 0;
+			double jitterSum = 0;
+			long[] deltas = new long[timestamps.length * trainLength];
+			for (int t = 0; t < timestamps.length; t++) {
+				int count = received[t];
+				totalReceived += count;
+				if (count < 2) {
+					continue;
+				}
+				long[] train = timestamps[t];
+				rates[measuredTrains++] = (count - 1) * 1e9 / (train[count - 1] - train[0]);
+				double mean = (double) (train[count - 1] - train[0]) / (count - 1), variance = 0;
+				for (int i = 1; i < count; i++) {
+					long delta = train[i] - train[i - 1];
+					deltas[deltaCount++] = delta;
+					variance += (delta - mean) * (delta - mean);
+				}
+				jitterSum += Math.sqrt(variance / (count - 1));
+			}
+			Arrays.sort(rates, 0, measuredTrains);
+			double rate = measuredTrains > 0 ? rates[measuredTrains / 2] : Double.NaN;
+			double jitter = measuredTrains > 0 ? jitterSum / measuredTrains / 1000 : Double.NaN;
+			Arrays.sort(deltas, 0, deltaCount);
+			double median = deltaCount > 0 ? deltas[deltaCount / 2] / 1000.0 : Double.NaN;
+			double min = deltaCount > 0 ? deltas[0] / 1000.0 : Double.NaN;
+			System.out.println(String.format(Stats.locale, "%-17s %7d %6d %12.0f %7.2f %10.2f %10.2f %10.2f %12.1f",
+					transport, payloadSize, trainLength, rate,
+					100.0 * (timestamps.length * trainLength - totalReceived) / (timestamps.length * trainLength),
+					jitter, median, min, (payloadSize + HEADERS_SIZE) * 8 / median));
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+
+/**
+ * A minimal benchmark harness: it runs a workload for a warm-up period, so that the JIT compiles it, then measures a
+ * number of batches and reports the median and best time per operation. Results of the workload are accumulated in a
+ * sink so that the JIT cannot remove the computation.
+ */
+abstract class Microbenchmark
+{
+	private static final long WARMUP_TIME = 1000; // ms
+	private static final int BATCHES = 10;
+	// Used when a single operation takes longer than the warm-up
+	private static final int SLOW_BATCHES = 3;
+	private static final long MIN_BATCH_TIME = 100; // ms
+
+	private static volatile long sink;
+
+	private final String name;
+
+	Microbenchmark(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Prepares the data of a batch of operations, outside the measured time.
+	 */
+	void setUp()
+	{
+	}
+
+	/**
+	 * Executes one operation.
+	 *
+	 * @return a value depending on the result of the operation
+	 */
+	abstract long run();
+
+	/**
+	 * Runs the benchmark and prints one line with its results.
+	 */
+	void measure()
+	{
+		long end = System.nanoTime() + WARMUP_TIME * 1000 * 1000;
+		int operations = 0;
+		while (System.nanoTime() < end) {
+			setUp();
+			sink += run();
+			operations++;
+		}
+		// Run enough operations per batch to measure them reliably
+		int batchSize = Math.max(1, (int) (operations * MIN_BATCH_TIME / WARMUP_TIME));
+
+		int batches = operations > 1 ? BATCHES : SLOW_BATCHES;
+		double[] times = new double[batches];
+		for (int b = 0; b < batches; b++) {
+			long elapsed = 0;
+			for (int i = 0; i < batchSize; i++) {
+				setUp();
+				long start = System.nanoTime();
+				sink += run();
+				elapsed += System.nanoTime() - start;
+			}
+			times[b] = (double) elapsed / batchSize;
+		}
+		Arrays.sort(times);
+		System.out.println(String.format(Stats.locale, "%-50s %14.1f %14.1f %8d", name, times[batches / 2] / 1000,
+				times[0] / 1000, batchSize));
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+
+	static void printHeader()
+	{
+		System.out.println(String.format(Stats.locale, "%-50s %14s %14s %8s", "benchmark", "median µs/op",
+				"best µs/op", "ops"));
+	}
+}
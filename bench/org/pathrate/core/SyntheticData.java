@@ -0,0 +1,94 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic capacity samples and packet trains resembling the ones measured over Wi-Fi links. All generators
+ * are seeded, so that every run benchmarks the same data.
+ */
+class SyntheticData
+{
+	enum Distribution {
+		/**
+		 * A single Gaussian mode around the capacity.
+		 */
+		UNIMODAL,
+		/**
+		 * The capacity mode plus weaker modes at fractions of it, caused by cross traffic.
+		 */
+		MULTIMODAL,
+		/**
+		 * A narrow capacity mode with a heavy tail of underestimates, caused by retransmissions and contention.
+		 */
+		WIFI_NOISE
+	}
+
+	private static final double CAPACITY = 54; // Mbps
+
+	/**
+	 * Generates sorted capacity samples (Mbps).
+	 */
+	static double[] capacities(Distribution distribution, int count, long seed)
+	{
+		Random random = new Random(seed);
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			switch (distribution) {
+				case UNIMODAL:
+					values[i] = CAPACITY + 2 * random.nextGaussian();
+					break;
+				case MULTIMODAL:
+					double fraction = random.nextDouble();
+					double center = fraction < 0.5 ? CAPACITY : fraction < 0.8 ? CAPACITY / 2 : CAPACITY / 3;
+					values[i] = center + random.nextGaussian();
+					break;
+				case WIFI_NOISE:
+					if (random.nextDouble() < 0.6) {
+						values[i] = CAPACITY + 0.5 * random.nextGaussian();
+					}
+					else {
+						// Pareto-distributed stretch of the dispersion
+						values[i] = CAPACITY / Math.pow(1 - random.nextDouble(), 1 / 1.5);
+					}
+					break;
+			}
+			values[i] = Math.max(0.1, values[i]);
+		}
+		Arrays.sort(values);
+		return values;
+	}
+
+	/**
+	 * Generates the timestamps (ns) of a packet train crossing a link of the given capacity, with Wi-Fi noise and an
+	 * occasional jump when the receiver is descheduled.
+	 */
+	static long[] train(Distribution distribution, int trainLength, int packetSize, long seed)
+	{
+		Random random = new Random(seed);
+		long[] timestamps = new long[trainLength];
+		double dispersion = packetSize * 8 / CAPACITY;
+		double time = 1000;
+		for (int i = 0; i < trainLength; i++) {
+			timestamps[i] = (long) (time * 1000);
+			double noise;
+			switch (distribution) {
+				case UNIMODAL:
+					noise = 5 * random.nextGaussian();
+					break;
+				case MULTIMODAL:
+					noise = random.nextDouble() < 0.3 ? dispersion * random.nextInt(3) : 5 * random.nextGaussian();
+					break;
+				default:
+					noise = random.nextDouble() < 0.4 ? dispersion / Math.pow(1 - random.nextDouble(), 1 / 1.5)
+							- dispersion : 3 * random.nextGaussian();
+					break;
+			}
+			if (random.nextDouble() < 0.02) {
+				noise += 500 + random.nextInt(2000); // jump
+			}
+			time += Math.max(1, dispersion + noise);
+		}
+		return timestamps;
+	}
+}
@@ -0,0 +1,110 @@
+package org.pathrate.core;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * Adapts the schedule to the losses and to the convergence of the estimate:
+ * <ul>
+ * <li>the spacing starts as in {@link FixedTrainScheduler}, it is shortened after a few complete trains in a row
+ * (the path is idle) and lengthened after each lost train, up to twice the initial spacing, within the configured
+ * bounds and never below the round-trip time;</li>
+ * <li>trains are lengthened quickly while no train is lost, slowly when some are, and not at all when many are lost
+ * or when the estimate is converging, so that the following rounds remain comparable. When a round is aborted the
+ * length is reduced, and it is never grown beyond that again: losses that persist with long trains are usually due
+ * to the length (e.g. the receive buffer overflows) rather than to the spacing.</li>
+ * </ul>
+ */
+public class AdaptiveTrainScheduler implements ITrainScheduler
+{
+	private static final int DEFAULT_MIN_TRAIN_SPACING = 20; // ms
+	private static final int DEFAULT_MAX_TRAIN_SPACING = 1000; // ms
+	private static final int DEFAULT_MAX_TRAIN_LENGTH = 1000;
+
+	// Complete trains in a row before the spacing is shortened
+	private static final int IDLE_TRAINS = 3;
+	private static final double SPACING_DECREASE = 0.75;
+	private static final double SPACING_INCREASE = 1.5;
+	private static final double FAST_GROWTH = 1.5;
+	private static final double SLOW_GROWTH = 1.1;
+	// The fraction of lost trains in a round above which trains are not lengthened
+	private static final double MAX_GROWTH_LOSS_RATE = 0.2;
+
+	private final int minTrainSpacing, maxTrainSpacing, maxTrainLength;
+	private int lowestTrainSpacing, highestTrainSpacing;
+	private int trainSpacing;
+	private int trainLengthCeiling;
+	private int completeTrains;
+	private int roundTrains, roundLostTrains;
+
+	public AdaptiveTrainScheduler()
+	{
+		this(DEFAULT_MIN_TRAIN_SPACING, DEFAULT_MAX_TRAIN_SPACING, DEFAULT_MAX_TRAIN_LENGTH);
+	}
+
+	/**
+	 * @param minTrainSpacing
+	 *            the minimum spacing, in milliseconds
+	 * @param maxTrainSpacing
+	 *            the maximum spacing, in milliseconds
+	 * @param maxTrainLength
+	 *            the maximum number of packets of a train
+	 */
+	public AdaptiveTrainScheduler(int minTrainSpacing, int maxTrainSpacing, int maxTrainLength)
+	{
+		this.minTrainSpacing = minTrainSpacing;
+		this.maxTrainSpacing = maxTrainSpacing;
+		this.maxTrainLength = maxTrainLength;
+	}
+
+	public void start(int roundTripTime)
+	{
+		lowestTrainSpacing = Math.min(maxTrainSpacing, Math.max(minTrainSpacing, roundTripTime));
+		trainSpacing = Math.max(lowestTrainSpacing,
+				Math.min(maxTrainSpacing, Math.max(SmartPathrate.MIN_TRAIN_SPACING, (int) (1.25 * roundTripTime))));
+		highestTrainSpacing = Math.min(maxTrainSpacing, 2 * trainSpacing);
+		trainLengthCeiling = maxTrainLength;
+		completeTrains = 0;
+		roundTrains = 0;
+		roundLostTrains = 0;
+	}
+
+	public int getTrainSpacing()
+	{
+		return trainSpacing;
+	}
+
+	public void trainReceived(boolean complete)
+	{
+		roundTrains++;
+		if (!complete) {
+			roundLostTrains++;
+			completeTrains = 0;
+			trainSpacing = Math.min(highestTrainSpacing, (int) (SPACING_INCREASE * trainSpacing));
+			return;
+		}
+		if (++completeTrains == IDLE_TRAINS) {
+			completeTrains = 0;
+			trainSpacing = Math.max(lowestTrainSpacing, (int) (SPACING_DECREASE * trainSpacing));
+		}
+	}
+
+	public int getNextTrainLength(int trainLength, boolean aborted, CapacityData data)
+	{
+		double lossRate = roundTrains == 0 ? 0 : (double) roundLostTrains / roundTrains;
+		roundTrains = 0;
+		roundLostTrains = 0;
+
+		int nextTrainLength;
+		if (aborted) {
+			nextTrainLength = trainLength - (int) (0.1 * trainLength);
+			trainLengthCeiling = nextTrainLength;
+		}
+		else if (lossRate > MAX_GROWTH_LOSS_RATE || data.converged || data.canStop > 0) {
+			nextTrainLength = trainLength;
+		}
+		else {
+			nextTrainLength = (int) ((lossRate > 0 ? SLOW_GROWTH : FAST_GROWTH) * trainLength);
+		}
+		return Math.min(trainLengthCeiling, nextTrainLength);
+	}
+}
@@ -0,0 +1,65 @@
+package org.pathrate.core;
+
+/**
+ * Serializes the packet trains emitted by concurrent sender sessions, so that trains directed to different receivers
+ * never overlap at the sender and do not alter each other's dispersion.
+ */
+class BurstScheduler
+{
+	private final long minBurstGap;
+	private boolean busy;
+	private long lastBurstEnd;
+
+	/**
+	 * @param minBurstGap
+	 *            the minimum time (in nanoseconds) between the end of a train and the beginning of the next one, to
+	 *            let the interface queue drain
+	 */
+	BurstScheduler(long minBurstGap)
+	{
+		this.minBurstGap = minBurstGap;
+		// The first train can be sent at once (nanoTime() can be negative)
+		this.lastBurstEnd = System.nanoTime() - minBurstGap;
+	}
+
+	/**
+	 * Waits until a train can be sent. Every invocation that returns normally must be followed by {@link #release()}.
+	 * 
+	 * @throws InterruptedException
+	 */
+	void acquire() throws InterruptedException
+	{
+		long wait;
+		synchronized (this) {
+			while (busy) {
+				wait();
+			}
+			busy = true;
+			wait = lastBurstEnd + minBurstGap - System.nanoTime();
+		}
+		if (wait > 0) {
+			// The turn is already taken: sleeping without the lock lets the other sessions wait on it
+			try {
+				Thread.sleep(wait / (1000 * 1000), (int) (wait % (1000 * 1000)));
+			}
+			catch (InterruptedException e) {
+				// No train will be sent, thus the turn passes without delaying the next one
+				synchronized (this) {
+					busy = false;
+					notify();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Signals that the train has been sent.
+	 */
+	synchronized void release()
+	{
+		lastBurstEnd = System.nanoTime();
+		busy = false;
+		notify();
+	}
+}
@@ -0,0 +1,182 @@
+package org.pathrate.core;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * The state of a capacity estimate at the end of a round. Instances are immutable: they are copied from the
+ * {@link CapacityData} of the measurement, and the modes are copied again each time they are retrieved. Capacities are
+ * in Mbps.
+ */
+public final class CapacitySnapshot
+{
+	private final int round;
+	private final int numberOfTrains;
+	private final int totalBytesSent;
+	private final int numberOfPairCapacities;
+	private final String status;
+	private final boolean done;
+	private final double binWidth;
+	private final MathHelper.Mode[] capacityModes;
+	private final MathHelper.Mode[] adrModes;
+	private final double adrValue;
+	private final double capacityEstimateLower;
+	private final double capacityEstimateUpper;
+	private final int canStop;
+	private final boolean converged;
+	private final double confidenceLower;
+	private final double confidenceUpper;
+
+	/**
+	 * @param round
+	 *            the index of the round just estimated, starting from 0
+	 */
+	CapacitySnapshot(CapacityData data, int round)
+	{
+		this.round = round;
+		this.numberOfTrains = data.numberOfTrains;
+		this.totalBytesSent = data.totalBytesSent;
+		this.numberOfPairCapacities = data.pairCapacities.size();
+		this.status = data.status;
+		this.done = data.done;
+		this.binWidth = data.binWidth;
+		this.capacityModes = copy(data.capacityModes);
+		this.adrModes = copy(data.adrModes);
+		this.adrValue = data.adrValue;
+		this.capacityEstimateLower = data.capacityEstimateLower;
+		this.capacityEstimateUpper = data.capacityEstimateUpper;
+		this.canStop = data.canStop;
+		this.converged = data.converged;
+		this.confidenceLower = data.confidenceLower;
+		this.confidenceUpper = data.confidenceUpper;
+	}
+
+	private static MathHelper.Mode[] copy(MathHelper.Mode[] modes)
+	{
+		if (modes == null) {
+			return new MathHelper.Mode[0];
+		}
+		MathHelper.Mode[] copy = new MathHelper.Mode[modes.length];
+		for (int i = 0; i < modes.length; i++) {
+			MathHelper.Mode mode = modes[i], modeCopy = new MathHelper.Mode();
+			modeCopy.modeLowerValue = mode.modeLowerValue;
+			modeCopy.modeUpperValue = mode.modeUpperValue;
+			modeCopy.modeCount = mode.modeCount;
+			modeCopy.bellLowerThreshold = mode.bellLowerThreshold;
+			modeCopy.bellUpperThreshold = mode.bellUpperThreshold;
+			modeCopy.bellCount = mode.bellCount;
+			modeCopy.totalCount = mode.totalCount;
+			modeCopy.bellKurtosis = mode.bellKurtosis;
+			copy[i] = modeCopy;
+		}
+		return copy;
+	}
+
+	/**
+	 * Retrieves the index of the round, starting from 0.
+	 */
+	public int getRound()
+	{
+		return round;
+	}
+
+	public int getNumberOfTrains()
+	{
+		return numberOfTrains;
+	}
+
+	public int getTotalBytesSent()
+	{
+		return totalBytesSent;
+	}
+
+	public int getNumberOfPairCapacities()
+	{
+		return numberOfPairCapacities;
+	}
+
+	public String getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Determines whether the measurement ends after this round because no better estimate can be expected.
+	 */
+	public boolean isDone()
+	{
+		return done;
+	}
+
+	public double getBinWidth()
+	{
+		return binWidth;
+	}
+
+	/**
+	 * Retrieves a copy of the modes of the pair capacities.
+	 */
+	public MathHelper.Mode[] getCapacityModes()
+	{
+		return copy(capacityModes);
+	}
+
+	/**
+	 * Retrieves a copy of the modes of the ADR capacities.
+	 */
+	public MathHelper.Mode[] getAdrModes()
+	{
+		return copy(adrModes);
+	}
+
+	public double getAdrValue()
+	{
+		return adrValue;
+	}
+
+	public double getCapacityEstimateLower()
+	{
+		return capacityEstimateLower;
+	}
+
+	public double getCapacityEstimateUpper()
+	{
+		return capacityEstimateUpper;
+	}
+
+	/**
+	 * Retrieves the number of consecutive rounds whose estimate is consistent with the previous one.
+	 */
+	public int getCanStop()
+	{
+		return canStop;
+	}
+
+	/**
+	 * Determines whether the {@link ConvergenceDetector} found the estimate precise and stable enough to stop.
+	 */
+	public boolean isConverged()
+	{
+		return converged;
+	}
+
+	/**
+	 * Retrieves the lower bound of the confidence interval, if a {@link ConvergenceDetector} is used (0 if not
+	 * available).
+	 */
+	public double getConfidenceLower()
+	{
+		return confidenceLower;
+	}
+
+	public double getConfidenceUpper()
+	{
+		return confidenceUpper;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format(Stats.locale, "Round %d: %.2f-%.2f Mbps, ADR %.1f Mbps (%s)", round,
+				capacityEstimateLower, capacityEstimateUpper, adrValue, status);
+	}
+}
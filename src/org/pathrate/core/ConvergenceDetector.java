@@ -0,0 +1,105 @@
+package org.pathrate.core;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * Decides whether the capacity estimate has converged, with a sequential confidence interval. After each round, the
+ * interval of the mean of the samples supporting the estimate (the bell of the selected pair capacity mode, or of the
+ * ADR mode) is calculated as mean ± z · sd / √n. The estimate has converged when the half-width of the interval is
+ * within the configured precision and the mean falls within the interval of the previous round.
+ */
+public class ConvergenceDetector
+{
+	private static final double DEFAULT_CONFIDENCE_LEVEL = 0.95;
+	private static final double DEFAULT_RELATIVE_PRECISION = 0.01;
+	// Below this number of samples the interval is not reliable
+	private static final int MIN_SAMPLES = 30;
+
+	private final double confidenceLevel;
+	private final double relativePrecision;
+	private final double z;
+
+	public ConvergenceDetector()
+	{
+		this(DEFAULT_CONFIDENCE_LEVEL, DEFAULT_RELATIVE_PRECISION);
+	}
+
+	/**
+	 * @param confidenceLevel
+	 *            the probability that the interval contains the mean, e.g. 0.95
+	 * @param relativePrecision
+	 *            the maximum half-width of the interval, as a fraction of the mean
+	 */
+	public ConvergenceDetector(double confidenceLevel, double relativePrecision)
+	{
+		if (confidenceLevel <= 0 || confidenceLevel >= 1) {
+			throw new IllegalArgumentException("Invalid confidence level: " + confidenceLevel);
+		}
+		this.confidenceLevel = confidenceLevel;
+		this.relativePrecision = relativePrecision;
+		this.z = MathHelper.normalQuantile(0.5 + confidenceLevel / 2);
+	}
+
+	public double getConfidenceLevel()
+	{
+		return confidenceLevel;
+	}
+
+	public double getRelativePrecision()
+	{
+		return relativePrecision;
+	}
+
+	/**
+	 * Updates the confidence interval and the convergence state of the given data. Rounds whose mean falls within the
+	 * previous interval are counted in {@link CapacityData#canStop}.
+	 *
+	 * @param samples
+	 *            the capacities the estimate was selected from
+	 * @param lower
+	 *            the lowest sample supporting the estimate
+	 * @param upper
+	 *            the highest sample supporting the estimate
+	 * @return true if the estimate has converged
+	 */
+	public boolean update(CapacityData data, SortedDoubleMultiset samples, double lower, double upper)
+	{
+		double previousLower = data.confidenceLower, previousUpper = data.confidenceUpper;
+		int first = samples.rank(lower), end = samples.rank(Math.nextUp(upper));
+		int count = end - first;
+		if (count < MIN_SAMPLES) {
+			reset(data);
+			return false;
+		}
+
+		// Welford's algorithm
+		double mean = 0, m2 = 0;
+		for (int i = 0; i < count; i++) {
+			double value = samples.get(first + i);
+			double delta = value - mean;
+			mean += delta / (i + 1);
+			m2 += delta * (value - mean);
+		}
+		double halfWidth = z * Math.sqrt(m2 / (count - 1)) / Math.sqrt(count);
+
+		data.confidenceLower = mean - halfWidth;
+		data.confidenceUpper = mean + halfWidth;
+		boolean stable = mean >= previousLower && mean <= previousUpper;
+		if (stable) {
+			// As in SmartPathrate.isStable(), so that schedulers see the estimate settling before it converges
+			data.canStop++;
+		}
+		data.converged = halfWidth <= relativePrecision * mean && stable;
+		return data.converged;
+	}
+
+	/**
+	 * Clears the confidence interval, when there is no estimate to support.
+	 */
+	public void reset(CapacityData data)
+	{
+		data.confidenceLower = 0;
+		data.confidenceUpper = 0;
+		data.converged = false;
+	}
+}
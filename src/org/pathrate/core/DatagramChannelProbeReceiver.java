@@ -0,0 +1,127 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Random;
+
+/**
+ * Receives probe packets through a non-blocking {@link DatagramChannel} waiting on a {@link Selector}. Packets are
+ * read into a direct buffer and their header is decoded in place, without copying the payload into the Java heap.
+ */
+class DatagramChannelProbeReceiver implements IProbeReceiver
+{
+	private static final int MAX_SEND_ATTEMPTS = 1000;
+
+	private final DatagramChannel channel;
+	private final Selector selector;
+	private final ByteBuffer buffer;
+	private final ByteBuffer loopbackBuffer;
+	private final InetSocketAddress loopbackAddress;
+	private long receiveTimestamp;
+
+	DatagramChannelProbeReceiver(int port, int bufferSize, int maxPayloadSize) throws IOException
+	{
+		channel = DatagramChannel.open();
+		channel.socket().setReuseAddress(true);
+		channel.socket().setReceiveBufferSize(bufferSize);
+		channel.socket().bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+
+		// Direct buffers are big-endian, as the packet header
+		buffer = ByteBuffer.allocateDirect(maxPayloadSize);
+
+		// Create random payload (maybe here it doesn't matter)
+		byte[] payload = new byte[maxPayloadSize];
+		new Random().nextBytes(payload);
+		loopbackBuffer = ByteBuffer.allocateDirect(maxPayloadSize);
+		loopbackBuffer.put(payload);
+		loopbackAddress = new InetSocketAddress(InetAddress.getByName(null), channel.socket().getLocalPort());
+	}
+
+	public boolean receive(int timeout) throws IOException
+	{
+		buffer.clear();
+		if (channel.receive(buffer) != null) {
+			receiveTimestamp = System.nanoTime();
+			return true;
+		}
+		// Nothing queued: wait for the socket to become readable (0 means forever, as for SO_TIMEOUT). Selecting can
+		// return early without a packet, e.g. on a spurious wakeup, thus only the deadline means a timeout.
+		long deadline = System.nanoTime() + timeout * 1000L * 1000;
+		long remaining = timeout;
+		while (true) {
+			if (selector.select(remaining) > 0) {
+				selector.selectedKeys().clear();
+				if (channel.receive(buffer) != null) {
+					receiveTimestamp = System.nanoTime();
+					return true;
+				}
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				// Selecting returns at once until the interrupt is cleared
+				return false;
+			}
+			if (timeout > 0) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					return false;
+				}
+				// Rounded up, since 0 would wait forever
+				remaining = (left + 1000 * 1000 - 1) / (1000 * 1000);
+			}
+		}
+	}
+
+	public int getPacketId()
+	{
+		return buffer.getInt(0);
+	}
+
+	public int getTrainId()
+	{
+		return buffer.getInt(4);
+	}
+
+	public long getSendTimestamp()
+	{
+		return buffer.getLong(8);
+	}
+
+	public long getReceiveTimestamp()
+	{
+		return receiveTimestamp;
+	}
+
+	public int getLocalPort()
+	{
+		return channel.socket().getLocalPort();
+	}
+
+	public void sendToSelf(int payloadSize) throws IOException
+	{
+		loopbackBuffer.clear().limit(payloadSize);
+		// A non-blocking channel sends nothing while the socket buffer is full
+		int sent = channel.send(loopbackBuffer, loopbackAddress);
+		for (int i = 1; sent == 0 && i < MAX_SEND_ATTEMPTS; i++) {
+			Thread.yield();
+			sent = channel.send(loopbackBuffer, loopbackAddress);
+		}
+		if (sent != payloadSize) {
+			throw new IOException("Cannot send a packet to self: " + sent + " of " + payloadSize + " bytes sent");
+		}
+	}
+
+	public void close() throws IOException
+	{
+		selector.close();
+		channel.close();
+	}
+}
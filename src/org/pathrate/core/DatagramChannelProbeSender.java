@@ -0,0 +1,98 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends probe packets through a connected {@link DatagramChannel}. All the packets of a train are built in advance in
+ * direct buffers, with their packet id and train id already stamped, so sending a train is a tight loop of writes
+ * (and of send times, if enabled).
+ */
+class DatagramChannelProbeSender implements IProbeSender
+{
+	private final DatagramChannel channel;
+	private byte[] payload;
+	private ByteBuffer[] packets = new ByteBuffer[0];
+	private int payloadSize;
+	private int trainLength;
+	private int trainId;
+	private boolean sendTimestamps;
+
+	DatagramChannelProbeSender(int bufferSize) throws IOException
+	{
+		channel = DatagramChannel.open();
+		channel.socket().setSendBufferSize(bufferSize);
+	}
+
+	public void setDestination(InetSocketAddress address, byte[] payload) throws IOException
+	{
+		if (channel.isConnected()) {
+			channel.disconnect();
+		}
+		// A connected channel skips the destination checks on each write
+		channel.connect(address);
+		this.payload = payload;
+		packets = new ByteBuffer[0];
+		trainLength = 0;
+	}
+
+	public void prepare(int payloadSize, int trainLength, int trainId)
+	{
+		if (trainLength > packets.length) {
+			ByteBuffer[] newPackets = new ByteBuffer[trainLength];
+			System.arraycopy(packets, 0, newPackets, 0, packets.length);
+			for (int i = packets.length; i < trainLength; i++) {
+				// Direct buffers are big-endian, as the packet header
+				newPackets[i] = ByteBuffer.allocateDirect(payload.length);
+				newPackets[i].put(payload);
+				newPackets[i].putInt(0, i);
+			}
+			packets = newPackets;
+		}
+		for (int i = 0; i < trainLength; i++) {
+			packets[i].putInt(4, trainId);
+		}
+		this.payloadSize = payloadSize;
+		this.trainLength = trainLength;
+		this.trainId = trainId;
+	}
+
+	public void sendTrain(int trainId) throws IOException
+	{
+		if (trainId != this.trainId) {
+			prepare(payloadSize, trainLength, trainId);
+		}
+		ByteBuffer[] packets = this.packets;
+		for (int i = 0; i < trainLength; i++) {
+			packets[i].clear().limit(payloadSize);
+		}
+		if (sendTimestamps) {
+			// The only per-packet work left: stamping the time right before the write
+			for (int i = 0; i < trainLength; i++) {
+				packets[i].putLong(8, System.nanoTime());
+				channel.write(packets[i]);
+			}
+			return;
+		}
+		for (int i = 0; i < trainLength; i++) {
+			channel.write(packets[i]);
+		}
+	}
+
+	public void setSendTimestamps(boolean enabled)
+	{
+		sendTimestamps = enabled;
+	}
+
+	public int getSendBufferSize() throws IOException
+	{
+		return channel.socket().getSendBufferSize();
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
@@ -0,0 +1,98 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Receives probe packets through a blocking {@link DatagramSocket}, relying on SO_TIMEOUT to detect lost packets.
+ */
+class DatagramSocketProbeReceiver implements IProbeReceiver
+{
+	private final DatagramSocket udpSocket;
+	private final byte[] buffer;
+	private final DatagramPacket packet;
+	private final ByteBuffer header;
+	private final DatagramPacket loopbackPacket;
+	private int currentTimeout = -1;
+	private long receiveTimestamp;
+
+	DatagramSocketProbeReceiver(int port, int bufferSize, int maxPayloadSize) throws IOException
+	{
+		udpSocket = new DatagramSocket(null); // null as SocketAddress, to
+												// create an unbound socket
+		udpSocket.setReuseAddress(true);
+		udpSocket.setReceiveBufferSize(bufferSize);
+		udpSocket.bind(new InetSocketAddress(port));
+
+		buffer = new byte[maxPayloadSize];
+		packet = new DatagramPacket(buffer, maxPayloadSize);
+		header = ByteBuffer.wrap(buffer).order(ByteOrder.BIG_ENDIAN);
+
+		// Create random payload (maybe here it doesn't matter)
+		byte[] loopbackBuffer = new byte[maxPayloadSize];
+		new Random().nextBytes(loopbackBuffer);
+		loopbackPacket = new DatagramPacket(loopbackBuffer, maxPayloadSize, InetAddress.getByName(null),
+				udpSocket.getLocalPort());
+	}
+
+	public boolean receive(int timeout) throws IOException
+	{
+		// Changing the timeout is a system call: do it only when needed
+		if (timeout != currentTimeout) {
+			udpSocket.setSoTimeout(timeout);
+			currentTimeout = timeout;
+		}
+		try {
+			packet.setLength(buffer.length);
+			udpSocket.receive(packet);
+			receiveTimestamp = System.nanoTime();
+			return true;
+		}
+		catch (InterruptedIOException e) {
+			return false;
+		}
+	}
+
+	public int getPacketId()
+	{
+		return header.getInt(0);
+	}
+
+	public int getTrainId()
+	{
+		return header.getInt(4);
+	}
+
+	public long getSendTimestamp()
+	{
+		return header.getLong(8);
+	}
+
+	public long getReceiveTimestamp()
+	{
+		return receiveTimestamp;
+	}
+
+	public int getLocalPort()
+	{
+		return udpSocket.getLocalPort();
+	}
+
+	public void sendToSelf(int payloadSize) throws IOException
+	{
+		loopbackPacket.setLength(payloadSize);
+		udpSocket.send(loopbackPacket);
+	}
+
+	public void close()
+	{
+		udpSocket.close();
+	}
+}
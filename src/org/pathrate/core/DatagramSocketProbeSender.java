@@ -0,0 +1,70 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Sends probe packets through a {@link DatagramSocket}, rewriting the packet id of a single buffer before each packet.
+ */
+class DatagramSocketProbeSender implements IProbeSender
+{
+	private final DatagramSocket udpSocket;
+	private DatagramPacket packet;
+	private ByteBuffer buffer;
+	private int trainLength;
+	private boolean sendTimestamps;
+
+	DatagramSocketProbeSender(int bufferSize) throws IOException
+	{
+		udpSocket = new DatagramSocket();
+		udpSocket.setSendBufferSize(bufferSize);
+	}
+
+	public void setDestination(InetSocketAddress address, byte[] payload)
+	{
+		packet = new DatagramPacket(payload, 0, payload.length, address);
+		buffer = ByteBuffer.wrap(payload).order(ByteOrder.BIG_ENDIAN);
+	}
+
+	public void prepare(int payloadSize, int trainLength, int trainId)
+	{
+		packet.setLength(payloadSize);
+		this.trainLength = trainLength;
+	}
+
+	public void sendTrain(int trainId) throws IOException
+	{
+		buffer.putInt(4, trainId);
+		if (sendTimestamps) {
+			for (int packetId = 0; packetId < trainLength; packetId++) {
+				buffer.putInt(0, packetId);
+				buffer.putLong(8, System.nanoTime());
+				udpSocket.send(packet);
+			}
+			return;
+		}
+		for (int packetId = 0; packetId < trainLength; packetId++) {
+			buffer.putInt(0, packetId);
+			udpSocket.send(packet);
+		}
+	}
+
+	public void setSendTimestamps(boolean enabled)
+	{
+		sendTimestamps = enabled;
+	}
+
+	public int getSendBufferSize() throws IOException
+	{
+		return udpSocket.getSendBufferSize();
+	}
+
+	public void close()
+	{
+		udpSocket.close();
+	}
+}
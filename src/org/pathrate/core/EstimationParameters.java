@@ -0,0 +1,47 @@
+package org.pathrate.core;
+
+/**
+ * Represents the tunable constants of the capacity estimation performed by {@link SmartPathrate}. A new instance holds
+ * the default values.
+ */
+public class EstimationParameters
+{
+	/**
+	 * The number of pair capacities required before an estimate is given.
+	 */
+	public int minRequiredPairCapacities = SmartPathrate.MIN_REQUIRED_PAIR_CAPACITIES;
+	/**
+	 * The maximum variation between consecutive dispersions, as a multiple of the kernel-to-user latency, that is not
+	 * considered a jump.
+	 */
+	public double maxKernelToUserLatencyVariation = 1.5;
+	/**
+	 * Dispersions above this multiple of the kernel-to-user latency are always considered jumps.
+	 */
+	public double kernelToUserLatencyJumpFactor = 5;
+	/**
+	 * The tolerance used to decide whether adjacent bins belong to the same modal bell (see
+	 * {@link MathHelper#BIN_CNT_TOLER_kernel_percent}).
+	 */
+	public double binCountTolerance = MathHelper.BIN_CNT_TOLER_kernel_percent;
+
+	public EstimationParameters()
+	{
+	}
+
+	public EstimationParameters(EstimationParameters other)
+	{
+		this.minRequiredPairCapacities = other.minRequiredPairCapacities;
+		this.maxKernelToUserLatencyVariation = other.maxKernelToUserLatencyVariation;
+		this.kernelToUserLatencyJumpFactor = other.kernelToUserLatencyJumpFactor;
+		this.binCountTolerance = other.binCountTolerance;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format(Stats.locale, "minpairs=%d maxktu=%.2f ktujump=%.2f bintoler=%.3f",
+				minRequiredPairCapacities, maxKernelToUserLatencyVariation, kernelToUserLatencyJumpFactor,
+				binCountTolerance);
+	}
+}
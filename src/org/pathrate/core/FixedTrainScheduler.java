@@ -0,0 +1,37 @@
+package org.pathrate.core;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * Spaces trains by a constant time derived from the round-trip time, and grows their length by a constant factor at
+ * each round. When a round is aborted the length is reduced by 5%. This is the default schedule.
+ */
+public class FixedTrainScheduler implements ITrainScheduler
+{
+	private static final double TRAIN_SPACING_MULTIPLIER = 1.25;
+	private static final double TRAIN_LENGTH_GROWTH = 1.25;
+
+	private int trainSpacing;
+
+	public void start(int roundTripTime)
+	{
+		trainSpacing = Math.max(SmartPathrate.MIN_TRAIN_SPACING, (int) (roundTripTime * TRAIN_SPACING_MULTIPLIER));
+	}
+
+	public int getTrainSpacing()
+	{
+		return trainSpacing;
+	}
+
+	public void trainReceived(boolean complete)
+	{
+	}
+
+	public int getNextTrainLength(int trainLength, boolean aborted, CapacityData data)
+	{
+		if (aborted) {
+			return trainLength - (int) (0.05 * trainLength);
+		}
+		return (int) (TRAIN_LENGTH_GROWTH * trainLength);
+	}
+}
@@ -0,0 +1,20 @@
+package org.pathrate.core;
+
+/**
+ * Observes a receiver measurement while it runs. Notifications are delivered in order on a dedicated thread, so that
+ * a slow listener never delays the reception of the trains; they may therefore arrive after the measurement has
+ * moved on, and the last ones after {@link IPathrate#startAsReceiver(java.net.InetAddress, ICancelTask)} has
+ * returned. To stop the measurement as soon as the estimate is good enough, cancel its {@link ICancelTask}.
+ */
+public interface ICapacityListener
+{
+	/**
+	 * Notifies that a train has been received, completely or not.
+	 */
+	public void trainReceived(TrainSummary train);
+
+	/**
+	 * Notifies the estimate at the end of a round.
+	 */
+	public void roundEstimated(CapacitySnapshot snapshot);
+}
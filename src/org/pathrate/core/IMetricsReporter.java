@@ -0,0 +1,14 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+
+/**
+ * Exports the values of the instruments of a {@link Metrics} registry, e.g. a {@link PrometheusFileReporter}.
+ */
+public interface IMetricsReporter
+{
+	/**
+	 * Exports the current values. It can be invoked concurrently with the recording of new values.
+	 */
+	public void report(Metrics metrics) throws IOException;
+}
@@ -19,8 +19,8 @@ public interface IPathrate
 		public double adrBinWidth;
 		public int numberOfTrains;
 		public int totalBytesSent;
-		public double[] pairCapacities = new double[0];
-		public double[] adrCapacities = new double[0];
+		public SortedDoubleMultiset pairCapacities = new SortedDoubleMultiset();
+		public SortedDoubleMultiset adrCapacities = new SortedDoubleMultiset();
 		public MathHelper.Mode[] capacityModes;
 		public MathHelper.Mode[] adrModes;
 		public double adrValue;
@@ -28,7 +28,25 @@ public interface IPathrate
 		public double capacityEstimateUpper;
 		public double prevCapacityEstimateLower;
 		public double prevCapacityEstimateUpper;
+		/**
+		 * The rounds whose estimate fell within the previous one, or within the previous confidence interval if a
+		 * {@link ConvergenceDetector} is used.
+		 */
 		public int canStop = 0;
+		/**
+		 * The confidence interval of the estimate, if a {@link ConvergenceDetector} is used (0 if not available).
+		 */
+		public double confidenceLower;
+		public double confidenceUpper;
+		/**
+		 * Whether the {@link ConvergenceDetector} found the estimate precise and stable enough to stop.
+		 */
+		public boolean converged;
+		/**
+		 * The estimators used to detect modes incrementally, or null to recompute modes at each round.
+		 */
+		public IncrementalModeEstimator pairModeEstimator;
+		public IncrementalModeEstimator adrModeEstimator;
 	}
 
 	public void install(ISink sink, IConnectionSpeedProvider connectionSpeedProvider);
@@ -37,5 +55,17 @@ public interface IPathrate
 
 	public void startAsReceiver(InetAddress senderAddress, ICancelTask task) throws IOException, InterruptedException;
 
+	/**
+	 * Retrieves the data of the last measurement, once {@link #startAsReceiver(InetAddress, ICancelTask)} has
+	 * returned. The data is not meant to be read while a measurement runs: use {@link #getCapacitySnapshot()} instead.
+	 */
 	public CapacityData getCapacityData();
+
+	/**
+	 * Retrieves the latest estimate of the current or last measurement. It can be called from any thread at any time:
+	 * the snapshot is immutable, and it is replaced (never modified) at the end of each round.
+	 * 
+	 * @return the latest estimate, or null if no round has been estimated yet
+	 */
+	public CapacitySnapshot getCapacitySnapshot();
 }
@@ -0,0 +1,59 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+
+/**
+ * Receives the UDP packets of probe trains. Implementations keep their buffers across trains, so that receiving a
+ * packet does not allocate anything.
+ */
+public interface IProbeReceiver
+{
+	/**
+	 * Waits for the next packet.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds
+	 * @return true if a packet has been received, false if the timeout expired
+	 * @throws IOException
+	 */
+	public boolean receive(int timeout) throws IOException;
+
+	/**
+	 * Retrieves the packet id (unique in each train) of the last received packet.
+	 */
+	public int getPacketId();
+
+	/**
+	 * Retrieves the train id (unique in the entire execution) of the last received packet.
+	 */
+	public int getTrainId();
+
+	/**
+	 * Retrieves the send time embedded by the sender in the last received packet, if the sender was asked to (see
+	 * {@link IProbeSender#setSendTimestamps(boolean)}). It is in nanoseconds, on the clock of the sender.
+	 */
+	public long getSendTimestamp();
+
+	/**
+	 * Retrieves the time at which the last packet was received, in nanoseconds: the {@link System#nanoTime()} taken as
+	 * soon as the packet left the socket.
+	 */
+	public long getReceiveTimestamp();
+
+	/**
+	 * Retrieves the UDP port the receiver is bound to, e.g. the one chosen by the system when an ephemeral port was
+	 * requested.
+	 */
+	public int getLocalPort();
+
+	/**
+	 * Sends a packet of the given size to this same receiver, through the loopback interface.
+	 * 
+	 * @param payloadSize
+	 *            the size of the UDP payload
+	 * @throws IOException
+	 */
+	public void sendToSelf(int payloadSize) throws IOException;
+
+	public void close() throws IOException;
+}
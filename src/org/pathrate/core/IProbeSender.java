@@ -0,0 +1,55 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Sends the UDP packets of probe trains. Each packet carries a packet id (unique in each train) and a train id (unique
+ * in the entire execution) in its first eight bytes, both big-endian. When send timestamps are enabled, the following
+ * eight bytes carry the time (as given by {@link System#nanoTime()}) at which the packet was sent.
+ */
+public interface IProbeSender
+{
+	/**
+	 * Sets where the following trains will be sent.
+	 * 
+	 * @param address
+	 *            the address of the receiver
+	 * @param payload
+	 *            the content of the packets, long at least the maximum payload size; the first eight bytes are
+	 *            overwritten with the packet id and the train id (sixteen bytes with the send time)
+	 * @throws IOException
+	 */
+	public void setDestination(InetSocketAddress address, byte[] payload) throws IOException;
+
+	/**
+	 * Prepares the next train, so that as little work as possible is left when it has to be sent.
+	 * 
+	 * @param payloadSize
+	 *            the size of the UDP payload
+	 * @param trainLength
+	 *            the number of packets in the train
+	 * @param trainId
+	 *            the expected identifier of the train
+	 */
+	public void prepare(int payloadSize, int trainLength, int trainId);
+
+	/**
+	 * Sets whether each packet carries its send time. It takes effect at the next train.
+	 */
+	public void setSendTimestamps(boolean enabled);
+
+	/**
+	 * Sends the prepared train.
+	 * 
+	 * @param trainId
+	 *            the identifier of the train, that may differ from the one expected in
+	 *            {@link #prepare(int, int, int)}
+	 * @throws IOException
+	 */
+	public void sendTrain(int trainId) throws IOException;
+
+	public int getSendBufferSize() throws IOException;
+
+	public void close() throws IOException;
+}
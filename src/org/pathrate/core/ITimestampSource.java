@@ -0,0 +1,16 @@
+package org.pathrate.core;
+
+/**
+ * Provides the arrival time of the probe packets. Timestamps are in nanoseconds, and only the difference between two
+ * timestamps taken from the same source is meaningful.
+ */
+public interface ITimestampSource
+{
+	/**
+	 * Retrieves the arrival time of the last packet received by the given receiver. It is invoked right after
+	 * {@link IProbeReceiver#receive(int)} returns.
+	 *
+	 * @return the arrival time, in nanoseconds
+	 */
+	public long getTimestamp(IProbeReceiver receiver);
+}
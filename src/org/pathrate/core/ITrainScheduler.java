@@ -0,0 +1,46 @@
+package org.pathrate.core;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * Decides when the receiver requests the next train and how long the trains of the next round are. An instance is
+ * used by one measurement at a time, and it is restarted at the beginning of each measurement.
+ */
+public interface ITrainScheduler
+{
+	/**
+	 * Prepares the schedule of a new measurement.
+	 *
+	 * @param roundTripTime
+	 *            the round-trip time between the receiver and the sender, in milliseconds
+	 */
+	public void start(int roundTripTime);
+
+	/**
+	 * Retrieves the time to wait between the end of a train and the request of the next one.
+	 *
+	 * @return the spacing, in milliseconds
+	 */
+	public int getTrainSpacing();
+
+	/**
+	 * Notifies the outcome of a train.
+	 *
+	 * @param complete
+	 *            true if all the packets have been received in order, false if the train was lost (NEG_ACK_TRAIN)
+	 */
+	public void trainReceived(boolean complete);
+
+	/**
+	 * Chooses the length of the trains of the next round.
+	 *
+	 * @param trainLength
+	 *            the length of the trains of the current round
+	 * @param aborted
+	 *            true if the round has been interrupted because too many trains were lost
+	 * @param data
+	 *            the estimate so far, which includes the current round unless it has been aborted
+	 * @return the number of packets of the next trains
+	 */
+	public int getNextTrainLength(int trainLength, boolean aborted, CapacityData data);
+}
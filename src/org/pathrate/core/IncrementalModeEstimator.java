@@ -0,0 +1,284 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+
+/**
+ * Detects the modes of a growing set of measurements without recomputing them from scratch at every round.
+ * <p>
+ * Measurements are counted in bins of a fixed grid (bin i holds the values in [i * binWidth, (i + 1) * binWidth)).
+ * Each bin keeps the number of values, their minimum and maximum, and the power sums needed to compute the kurtosis of
+ * any bell made of adjacent bins. Adding measurements only updates the bins they fall in, and extracting the modes
+ * costs as much as the number of non-empty bins, regardless of the number of measurements.
+ * <p>
+ * The bin width is kept until it drifts from the requested one by more than {@link #BIN_WIDTH_TOLERANCE}: only then
+ * all the bins are rebuilt. Since bins are aligned to a grid, modes may differ slightly from the ones found by
+ * {@link MathHelper#calculateModes(double[], double)}, which slides a window over the measurements.
+ */
+public class IncrementalModeEstimator
+{
+	/**
+	 * The relative change of the bin width that causes the bins to be rebuilt.
+	 */
+	public static final double BIN_WIDTH_TOLERANCE = 0.1;
+	private final double binCountTolerance;
+	private double binWidth;
+	// Power sums are computed on value - reference, to limit cancellation errors
+	private double reference = Double.NaN;
+	private int totalCount;
+
+	// Non-empty bins, sorted by index
+	private int binCount;
+	private long[] index = new long[16];
+	private int[] count = new int[16];
+	private double[] min = new double[16];
+	private double[] max = new double[16];
+	private double[] s1 = new double[16];
+	private double[] s2 = new double[16];
+	private double[] s3 = new double[16];
+	private double[] s4 = new double[16];
+
+	private MathHelper.Mode[] modes;
+
+	/**
+	 * Creates an estimator with the given initial bin width.
+	 */
+	public IncrementalModeEstimator(double binWidth)
+	{
+		this(binWidth, MathHelper.BIN_CNT_TOLER_kernel_percent);
+	}
+
+	/**
+	 * Creates an estimator with the given initial bin width and bin count tolerance (see
+	 * {@link MathHelper#BIN_CNT_TOLER_kernel_percent}).
+	 */
+	public IncrementalModeEstimator(double binWidth, double binCountTolerance)
+	{
+		this.binWidth = binWidth;
+		this.binCountTolerance = binCountTolerance;
+	}
+
+	public double getBinWidth()
+	{
+		return binWidth;
+	}
+
+	/**
+	 * Retrieves the number of measurements added so far.
+	 */
+	public int size()
+	{
+		return totalCount;
+	}
+
+	/**
+	 * Adds new measurements, updating only the bins they fall in.
+	 *
+	 * @param values
+	 *            the measurements to add, in any order
+	 */
+	public void add(double[] values)
+	{
+		for (double value : values) {
+			addValue(value);
+		}
+		if (values.length > 0) {
+			modes = null;
+		}
+	}
+
+	/**
+	 * Requests a new bin width. If it differs from the current one by more than {@link #BIN_WIDTH_TOLERANCE}, the bins
+	 * are rebuilt from all the measurements.
+	 *
+	 * @param binWidth
+	 *            the requested bin width
+	 * @param values
+	 *            all the measurements added so far
+	 */
+	public void setBinWidth(double binWidth, SortedDoubleMultiset values)
+	{
+		if (Math.abs(binWidth - this.binWidth) <= BIN_WIDTH_TOLERANCE * this.binWidth) {
+			return;
+		}
+		this.binWidth = binWidth;
+		binCount = 0;
+		totalCount = 0;
+		add(values.toArray());
+		modes = null;
+	}
+
+	private void addValue(double value)
+	{
+		if (Double.isNaN(reference)) {
+			reference = value;
+		}
+		long binIndex = (long) Math.floor(value / binWidth);
+		int i = Arrays.binarySearch(index, 0, binCount, binIndex);
+		if (i < 0) {
+			i = -i - 1;
+			insertBin(i, binIndex);
+			min[i] = value;
+			max[i] = value;
+		}
+		else {
+			min[i] = Math.min(min[i], value);
+			max[i] = Math.max(max[i], value);
+		}
+		double y = value - reference, y2 = y * y;
+		count[i]++;
+		s1[i] += y;
+		s2[i] += y2;
+		s3[i] += y2 * y;
+		s4[i] += y2 * y2;
+		totalCount++;
+	}
+
+	private void insertBin(int position, long binIndex)
+	{
+		if (binCount == index.length) {
+			int capacity = 2 * binCount;
+			index = Arrays.copyOf(index, capacity);
+			count = Arrays.copyOf(count, capacity);
+			min = Arrays.copyOf(min, capacity);
+			max = Arrays.copyOf(max, capacity);
+			s1 = Arrays.copyOf(s1, capacity);
+			s2 = Arrays.copyOf(s2, capacity);
+			s3 = Arrays.copyOf(s3, capacity);
+			s4 = Arrays.copyOf(s4, capacity);
+		}
+		int moved = binCount - position;
+		System.arraycopy(index, position, index, position + 1, moved);
+		System.arraycopy(count, position, count, position + 1, moved);
+		System.arraycopy(min, position, min, position + 1, moved);
+		System.arraycopy(max, position, max, position + 1, moved);
+		System.arraycopy(s1, position, s1, position + 1, moved);
+		System.arraycopy(s2, position, s2, position + 1, moved);
+		System.arraycopy(s3, position, s3, position + 1, moved);
+		System.arraycopy(s4, position, s4, position + 1, moved);
+		index[position] = binIndex;
+		count[position] = 0;
+		s1[position] = s2[position] = s3[position] = s4[position] = 0;
+		binCount++;
+	}
+
+	/**
+	 * Retrieves the modes of the measurements added so far, ordered based on the number of measurements in the modal
+	 * bin (strongest mode first). Modes are cached until new measurements are added.
+	 */
+	public MathHelper.Mode[] getModes()
+	{
+		if (modes == null) {
+			modes = calculateModes();
+		}
+		return modes;
+	}
+
+	private MathHelper.Mode[] calculateModes()
+	{
+		MathHelper.Mode[] result = new MathHelper.Mode[MathHelper.MAX_NUMBER_OF_MODES];
+		int modeCount = 0;
+		boolean[] binValid = new boolean[binCount];
+		Arrays.fill(binValid, 0, binCount, true);
+
+		while (modeCount < result.length) {
+			// Find the bin of the primary mode from non-marked bins
+			int modeBin = -1;
+			for (int i = 0; i < binCount; i++) {
+				if (binValid[i] && (modeBin < 0 || count[i] > count[modeBin])) {
+					modeBin = i;
+				}
+			}
+			if (modeBin < 0) {
+				break; // no more modes
+			}
+
+			// Extend the bell to the adjacent bins, stopping when another local mode is detected
+			int bellStart = modeBin;
+			int currentCount = count[modeBin];
+			while (isBellBin(binValid, bellStart - 1, bellStart, currentCount)) {
+				bellStart--;
+				currentCount = count[bellStart];
+			}
+			int bellEnd = modeBin;
+			currentCount = count[modeBin];
+			while (isBellBin(binValid, bellEnd + 1, bellEnd, currentCount)) {
+				bellEnd++;
+				currentCount = count[bellEnd];
+			}
+
+			// Mark the bins that make up this modal bell as invalid
+			Arrays.fill(binValid, bellStart, bellEnd + 1, false);
+
+			if (count[modeBin] <= MathHelper.BIN_NOISE) {
+				// Unimportant mode: try another one
+				continue;
+			}
+			MathHelper.Mode mode = createMode(modeBin, bellStart, bellEnd);
+			if (Double.isNaN(mode.bellKurtosis)) {
+				// Unimportant mode: try another one
+				continue;
+			}
+			result[modeCount++] = mode;
+		}
+		return Arrays.copyOf(result, modeCount);
+	}
+
+	/**
+	 * Checks whether the candidate bin, adjacent to the last bin of the bell, belongs to the same bell.
+	 */
+	private boolean isBellBin(boolean[] binValid, int candidate, int last, int lastCount)
+	{
+		if (candidate < 0 || candidate >= binCount || !binValid[candidate]) {
+			return false;
+		}
+		// A gap in the grid is an empty bin
+		if (Math.abs(index[candidate] - index[last]) != 1) {
+			return false;
+		}
+		return count[candidate] < lastCount + binCountTolerance * lastCount;
+	}
+
+	private MathHelper.Mode createMode(int modeBin, int bellStart, int bellEnd)
+	{
+		MathHelper.Mode mode = new MathHelper.Mode();
+		mode.totalCount = totalCount;
+		mode.modeCount = count[modeBin];
+		mode.modeLowerValue = min[modeBin];
+		mode.modeUpperValue = max[modeBin];
+		mode.bellLowerThreshold = min[bellStart];
+		mode.bellUpperThreshold = max[bellEnd];
+
+		int n = 0;
+		double sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0;
+		for (int i = bellStart; i <= bellEnd; i++) {
+			n += count[i];
+			sum1 += s1[i];
+			sum2 += s2[i];
+			sum3 += s3[i];
+			sum4 += s4[i];
+		}
+		mode.bellCount = n;
+		mode.bellKurtosis = getKurtosis(n, sum1, sum2, sum3, sum4);
+		return mode;
+	}
+
+	/**
+	 * Computes the kurtosis' index from the power sums of a set of measurements, in the same way as
+	 * {@link MathHelper#extractMode(double[], boolean[], double)}.
+	 */
+	private static double getKurtosis(int n, double sum1, double sum2, double sum3, double sum4)
+	{
+		if (n < 3) {
+			return MathHelper.INVALID_KURTOSIS;
+		}
+		double m = sum1 / n, m2 = m * m;
+		// Central moments from the power sums
+		double denominator = sum2 - n * m2;
+		double numerator = sum4 - 4 * m * sum3 + 6 * m2 * sum2 - 4 * m2 * m * sum1 + n * m2 * m2;
+		if (denominator <= 0) {
+			return MathHelper.INVALID_KURTOSIS;
+		}
+		denominator /= n;
+		return numerator / (denominator * denominator);
+	}
+}
@@ -21,6 +21,8 @@ public class LegacyPathrate implements IPathrate
 	private static final int NUMBER_OF_TRAINS_P1 = 1000;
 	private static final int NUMBER_OF_TRAINS_P2 = 500;
 	private static final int MAX_NUMBER_OF_MODES = 1000;
+	private static final int MAX_MODE_SCANNED_VALUES = 10000000;
+	private static final int MAX_MODE_EXTRACTION_TIME = 2000;
 	private static final int MIN_PACKET_SIZE_P1 = 572;
 	private static final int MAX_TRAIN_LEN = 50;
 	private static final int IGNORE_LIM_FACTOR = 4;
@@ -43,6 +45,7 @@ public class LegacyPathrate implements IPathrate
 	}
 
 	public CapacityData capacityData;
+	private volatile CapacitySnapshot capacitySnapshot;
 
 	private DatagramSocket udpSocket;
 	private Socket tcpSocket;
@@ -727,7 +730,9 @@ public class LegacyPathrate implements IPathrate
 			for (int i = 0; i < no_trains; i++)
 				measurs_vld_P1[i] = true;
 			no_modes_P1 = 0;
-			while ((curr_mode = MathHelper.extractMode(ord_measurs_P1, measurs_vld_P1, bin_wd)) != null) {
+			MathHelper.WorkBudget budget_P1 = new MathHelper.WorkBudget(MAX_MODE_SCANNED_VALUES,
+					MAX_MODE_EXTRACTION_TIME);
+			while ((curr_mode = MathHelper.extractMode(ord_measurs_P1, measurs_vld_P1, bin_wd, budget_P1)) != null) {
 				/*
 				 * the modes are ordered based on the number of measurements in
 				 * the modal bin (strongest mode first)
@@ -747,6 +752,9 @@ public class LegacyPathrate implements IPathrate
 					termint(writer, -1);
 				}
 			}
+			if (budget_P1.isExhausted()) {
+				sink.info("Mode detection stopped early: " + no_modes_P1 + " modes found");
+			}
 		}
 		else {
 			sink.info("\n\tAborting Phase I measurements..\n\tToo many ignored measurements\n\tPhase II will report lower bound on path capacity.");
@@ -854,7 +862,9 @@ public class LegacyPathrate implements IPathrate
 		for (int train_no = 0; train_no < no_trains; train_no++)
 			measurs_vld_P2[train_no] = true;
 		no_modes_P2 = 0;
-		while ((curr_mode = MathHelper.extractMode(ord_measurs_P2, measurs_vld_P2, bin_wd)) != null) {
+		MathHelper.WorkBudget budget_P2 = new MathHelper.WorkBudget(MAX_MODE_SCANNED_VALUES,
+				MAX_MODE_EXTRACTION_TIME);
+		while ((curr_mode = MathHelper.extractMode(ord_measurs_P2, measurs_vld_P2, bin_wd, budget_P2)) != null) {
 			/*
 			 * the modes are ordered based on the number of measurements in the
 			 * modal bin (strongest mode first)
@@ -874,6 +884,9 @@ public class LegacyPathrate implements IPathrate
 				termint(writer, -1);
 			}
 		}
+		if (budget_P2.isExhausted()) {
+			sink.info("Mode detection stopped early: " + no_modes_P2 + " modes found");
+		}
 
 		/*
 		 * If the Phase II measurements are distributed in a very narrow fashion
@@ -1066,6 +1079,7 @@ public class LegacyPathrate implements IPathrate
 		capacityData = new CapacityData();
 		capacityData.capacityEstimateLower = bw_lo;
 		capacityData.capacityEstimateUpper = bw_hi;
+		capacitySnapshot = new CapacitySnapshot(capacityData, 0);
 	}
 
 	// Receive a complete packet train from the sender
@@ -1241,4 +1255,10 @@ public class LegacyPathrate implements IPathrate
 	{
 		return capacityData;
 	}
+
+	@Override
+	public CapacitySnapshot getCapacitySnapshot()
+	{
+		return capacitySnapshot;
+	}
 }
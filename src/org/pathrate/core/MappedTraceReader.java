@@ -0,0 +1,207 @@
+package org.pathrate.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the packet trains of a binary trace (see {@link TraceWriter}) by mapping the file in memory. Timestamps are
+ * decoded straight from the mapped pages into the caller's arrays, without intermediate buffers. Files larger than
+ * the mapping window are mapped one window at a time. Like {@link TraceReader}, it sets the round of each train from
+ * the end-of-round records.
+ */
+public class MappedTraceReader implements Closeable
+{
+	private static final long DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+	// The type and length of a record take at most 6 bytes
+	private static final int MAX_RECORD_HEADER = 6;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final long windowSize;
+	private final int version;
+	// The round of the next train
+	private int round;
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	public MappedTraceReader(File trace) throws IOException
+	{
+		this(trace, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Opens a trace, checking its header.
+	 *
+	 * @param windowSize
+	 *            the size of the portion of the file mapped at once, which must be larger than any record
+	 * @throws IOException
+	 *             if the file is not a trace or its version is not supported
+	 */
+	public MappedTraceReader(File trace, long windowSize) throws IOException
+	{
+		this.file = new RandomAccessFile(trace, "r");
+		this.channel = file.getChannel();
+		this.fileSize = channel.size();
+		this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+		try {
+			map(0);
+			if (window.remaining() < 5 || window.getInt() != TraceWriter.MAGIC) {
+				throw new IOException("Not a packet train trace");
+			}
+			version = window.get() & 0xFF;
+			if (version != TraceWriter.VERSION) {
+				throw new IOException("Unsupported trace version: " + version);
+			}
+		}
+		catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns the number of rounds ended so far, from the last end-of-round record read. Once all the trains are read,
+	 * it is the number of rounds of the trace, including the last rounds without trains.
+	 */
+	public int getRoundCount()
+	{
+		return round;
+	}
+
+	/**
+	 * Reads the next train of the trace into the given record. The timestamps array of the record is reused if it is
+	 * long enough.
+	 *
+	 * @return false if the end of the trace has been reached
+	 * @throws EOFException
+	 *             if the trace is truncated
+	 */
+	public boolean readTrain(TrainRecord train) throws IOException
+	{
+		while (true) {
+			ensureAvailable(MAX_RECORD_HEADER);
+			if (!window.hasRemaining()) {
+				return false;
+			}
+			int type = window.get() & 0xFF;
+			int length = getVarint();
+			ensureAvailable(length);
+			if (window.remaining() < length) {
+				throw new EOFException("Truncated trace");
+			}
+			int end = window.position() + length;
+			if (type == TraceWriter.END_OF_ROUND_RECORD) {
+				round = getInt(end) + 1;
+				window.position(end);
+				continue;
+			}
+			if (type != TraceWriter.TRAIN_RECORD) {
+				window.position(end);
+				continue;
+			}
+
+
+			train.trainId = getInt(end);
+			train.trainLength = getInt(end);
+			train.packetSize = getInt(end);
+			train.wifiSpeed = getInt(end);
+			train.minPossibleDelta = getLong(end);
+			train.kernelToUserLatency = getLong(end);
+			if (train.timestamps == null || train.timestamps.length < train.trainLength) {
+				train.timestamps = new long[train.trainLength];
+			}
+			long previous = 0;
+			for (int i = 0; i < train.trainLength; i++) {
+				previous += getLong(end);
+				train.timestamps[i] = previous;
+			}
+			train.round = round;
+			window.position(end);
+			return true;
+		}
+	}
+
+	public void close() throws IOException
+	{
+		window = null;
+		file.close();
+	}
+
+	private void map(long start) throws IOException
+	{
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+	}
+
+	/**
+	 * Remaps the window, if needed, so that the given number of bytes (or the rest of the file) can be read.
+	 */
+	private void ensureAvailable(int count) throws IOException
+	{
+		long position = windowStart + window.position();
+		if (window.remaining() < count && windowStart + window.limit() < fileSize) {
+			map(position);
+		}
+	}
+
+	private int getVarint() throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!window.hasRemaining()) {
+				throw new EOFException("Truncated trace");
+			}
+			int b = window.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private int getInt(int end) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (window.position() >= end) {
+				throw new IOException("Malformed train record");
+			}
+			int b = window.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				// Zigzag decoding
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private long getLong(int end) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			if (window.position() >= end) {
+				throw new IOException("Malformed train record");
+			}
+			int b = window.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				// Zigzag decoding
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -30,7 +30,12 @@ public class MathHelper
 	public static final double INVALID_KURTOSIS = Double.NaN;
 	public static final int BIN_NOISE = 10;
 	public static final int MAX_NUMBER_OF_MODES = 10;
-	private static final double BIN_CNT_TOLER_kernel_percent = 0.1;
+	/**
+	 * The default tolerance, relative to the number of measurements in a bin, used to decide whether the adjacent bin
+	 * belongs to the same modal bell.
+	 */
+	public static final double BIN_CNT_TOLER_kernel_percent = 0.1;
+	private static final Mode UNIMPORTANT_MODE = new Mode();
 
 	public static class Mode
 	{
@@ -63,6 +68,52 @@ public class MathHelper
 		 */
 		public int totalCount;
 		public double bellKurtosis;
+		/**
+		 * Whether the work budget was exhausted while extracting the mode: its bell may be narrower than the actual
+		 * one.
+		 */
+		public boolean truncated;
+	}
+
+	/**
+	 * Bounds the work spent extracting modes, both as number of scanned measurements and as elapsed time. Once the
+	 * budget is exhausted no more modes are extracted, and the modes found so far are returned, the last one possibly
+	 * {@link Mode#truncated}. A budget is meant to be used for a single set of measurements.
+	 */
+	public static class WorkBudget
+	{
+		private long remainingValues;
+		private final long deadline;
+
+		/**
+		 * Creates a budget.
+		 * 
+		 * @param maxScannedValues
+		 *            the maximum number of measurements that can be scanned, or 0 for no limit
+		 * @param maxTime
+		 *            the maximum time (in milliseconds) that can be spent, starting now, or 0 for no limit
+		 */
+		public WorkBudget(long maxScannedValues, long maxTime)
+		{
+			this.remainingValues = maxScannedValues > 0 ? maxScannedValues : Long.MAX_VALUE;
+			this.deadline = maxTime > 0 ? System.nanoTime() + maxTime * 1000000 : 0;
+		}
+
+		/**
+		 * Charges the given number of scanned measurements to the budget.
+		 * 
+		 * @return false if the budget is exhausted
+		 */
+		boolean spend(long scannedValues)
+		{
+			remainingValues -= scannedValues;
+			return !isExhausted();
+		}
+
+		public boolean isExhausted()
+		{
+			return remainingValues <= 0 || (deadline != 0 && System.nanoTime() - deadline >= 0);
+		}
 	}
 
 	/**
@@ -125,6 +176,37 @@ public class MathHelper
 		return Math.sqrt(sum / (count - 1));
 	}
 
+	/**
+	 * Compute the quantile of the standard normal distribution, i.e. the value below which a fraction p of the
+	 * distribution lies, with the rational approximation by P. J. Acklam (relative error below 1.2e-9).
+	 *
+	 * @param p
+	 *            a probability, strictly between 0 and 1
+	 */
+	public static double normalQuantile(double p)
+	{
+		final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+				1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+		final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+				6.680131188771972e+01, -1.328068155288572e+01 };
+		final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+				-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+		final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+				3.754408661907416e+00 };
+		final double pLow = 0.02425;
+
+		if (p < pLow || p > 1 - pLow) {
+			// Tails
+			double q = Math.sqrt(-2 * Math.log(p < pLow ? p : 1 - p));
+			double x = (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+					/ ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+			return p < pLow ? x : -x;
+		}
+		double q = p - 0.5, r = q * q;
+		return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+				/ (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+	}
+
 	public static double calculateBinWidth(double[] sortedValues)
 	{
 		if (sortedValues.length < 10) {
@@ -135,6 +217,19 @@ public class MathHelper
 		return Math.max(1, (q2 - q1) / 10);
 	}
 
+	/**
+	 * Same as {@link #calculateBinWidth(double[])}, but looks up the quartiles by rank instead of flattening the set.
+	 */
+	public static double calculateBinWidth(SortedDoubleMultiset values)
+	{
+		if (values.size() < 10) {
+			return 1;
+		}
+		double q1 = values.get(values.size() / 4);
+		double q2 = values.get(3 * values.size() / 4);
+		return Math.max(1, (q2 - q1) / 10);
+	}
+
 	public static int[] calculateDistribution(int[] sortedValues, int binWidth)
 	{
 		int max = sortedValues[sortedValues.length - 1];
@@ -160,6 +255,20 @@ public class MathHelper
 		return distribution;
 	}
 
+	public static int[] calculateDistribution(SortedDoubleMultiset values, double binWidth)
+	{
+		if (values.size() == 0) {
+			return new int[] { 0 };
+		}
+		// Always add an additional row, required by pgfplots when plotting histograms
+		int[] distribution = new int[(int) ((1 + values.max() + binWidth - 1) / binWidth) + 1];
+		for (int i = 0; i < values.size(); i++) {
+			distribution[(int) (values.get(i) / binWidth)]++;
+		}
+		distribution[distribution.length - 1] = 0;
+		return distribution;
+	}
+
 	public static int[] calculateCCDF(int[] occurrencies)
 	{
 		int[] result = new int[occurrencies.length];
@@ -180,18 +289,72 @@ public class MathHelper
 	 *            an array of booleans specifying whether the corresponding value is to be considered valid
 	 * @param binWidth
 	 *            the bin width to use in the local mode detection process
-	 * @return the mode detected, or {@link UNIMPORTANT_MODE}, or null if no more modes can be extracted
+	 * @return the mode detected, or null if no more modes can be extracted
 	 */
 	public static Mode extractMode(double[] sortedValues, boolean[] dataValid, double binWidth)
+	{
+		return extractMode(sortedValues, dataValid, binWidth, null);
+	}
+
+	/**
+	 * Same as {@link #extractMode(double[], boolean[], double)}, but stops when the given budget is exhausted.
+	 * Unimportant modes are skipped iteratively, so that noisy data does not cause deep recursion.
+	 * 
+	 * @param budget
+	 *            the work budget, or null for no limit
+	 * @return the mode detected, which is {@link Mode#truncated} if the budget ran out while extracting it, or null if
+	 *         no more modes can be extracted or the budget was already exhausted
+	 */
+	public static Mode extractMode(double[] sortedValues, boolean[] dataValid, double binWidth, WorkBudget budget)
+	{
+		return extractMode(sortedValues, dataValid, binWidth, BIN_CNT_TOLER_kernel_percent, budget);
+	}
+
+	/**
+	 * Same as {@link #extractMode(double[], boolean[], double, WorkBudget)}, but with a custom bin count tolerance.
+	 * 
+	 * @param binCountTolerance
+	 *            the tolerance used instead of {@link #BIN_CNT_TOLER_kernel_percent}
+	 */
+	public static Mode extractMode(double[] sortedValues, boolean[] dataValid, double binWidth,
+			double binCountTolerance, WorkBudget budget)
+	{
+		while (budget == null || !budget.isExhausted()) {
+			Mode mode = extractNextMode(sortedValues, dataValid, binWidth, binCountTolerance, budget);
+			if (mode != UNIMPORTANT_MODE) {
+				return mode;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Detect the next mode, marking its bell as invalid.
+	 * 
+	 * @return the mode detected, or {@link #UNIMPORTANT_MODE} if it must be discarded, or null if no more modes can
+	 *         be extracted
+	 */
+	private static Mode extractNextMode(double[] sortedValues, boolean[] dataValid, double binWidth,
+			double binCountTolerancePercent, WorkBudget budget)
 	{
 		// Find the bin of the primary mode from non-marked values:
-		// find window of length binWidth with maximum number of consecutive values
+		// find window of length binWidth with maximum number of consecutive values.
+		// Within a run of valid values the end of the window never moves backwards,
+		// so both ends slide forward and each run is scanned in linear time.
 		int modeStartIndex = 0, modeEndIndex = 0;
-		for (int i = 0, count = 0; i < dataValid.length; i++) {
-			if (dataValid[i]) {
-				int j = i;
+		int count = 0;
+		for (int runStart = 0; runStart < dataValid.length;) {
+			if (!dataValid[runStart]) {
+				runStart++;
+				continue;
+			}
+			int runEnd = runStart + 1;
+			while (runEnd < dataValid.length && dataValid[runEnd]) {
+				runEnd++;
+			}
+			for (int i = runStart, j = runStart; i < runEnd; i++) {
 				double max = sortedValues[i] + binWidth;
-				while (j < dataValid.length && dataValid[j] && sortedValues[j] <= max) {
+				while (j < runEnd && sortedValues[j] <= max) {
 					j++;
 				}
 				if (count < j - i) {
@@ -200,12 +363,14 @@ public class MathHelper
 					modeEndIndex = j - 1;
 				}
 			}
+			runStart = runEnd;
 		}
 		if (modeEndIndex == 0) {
 			return null; // no more modes
 		}
-
 		Mode currentMode = new Mode();
+		// The window found is kept even if the budget is exhausted, but its bell is not searched
+		currentMode.truncated = budget != null && !budget.spend(dataValid.length);
 		currentMode.totalCount = sortedValues.length;
 		currentMode.modeCount = modeEndIndex - modeStartIndex + 1;
 		currentMode.modeLowerValue = sortedValues[modeStartIndex];
@@ -226,20 +391,51 @@ public class MathHelper
 		int binCount = currentMode.modeCount;
 		int binStartIndex = modeStartIndex;
 		int binEndIndex = modeEndIndex;
-		binCountTolerance = BIN_CNT_TOLER_kernel_percent * (binCount);
-		do {
+		binCountTolerance = binCountTolerancePercent * (binCount);
+		// The candidate bins are the windows of binWidth ending (on the left) or starting (on the right) within one
+		// value of the current bin. As the bell grows, both ends of this range move away from the mode, thus each side
+		// slides a single window across the bell, keeping the candidates in a queue of decreasing counts: every value
+		// is scanned once per side.
+		int[] candidates = new int[sortedValues.length];
+		int[] candidateCounts = new int[sortedValues.length];
+		int head = 0, tail = 0;
+		int next = Integer.MAX_VALUE, j = 0;
+		while (!currentMode.truncated) {
 			int leftBinCount = 0, leftBinStartIndex = 0, leftBinEndIndex = 0;
+			int scanned = 0;
 			if (binStartIndex > 0) {
-				for (int i = binEndIndex - 1; i >= binStartIndex - 1; i--) {
-					int j = findLastLess(sortedValues, 0, i + 1, sortedValues[i] - binWidth);
-					if (i - j >= leftBinCount) {
-						leftBinCount = i - j;
-						leftBinStartIndex = j + 1;
-						leftBinEndIndex = i;
+				if (next > binEndIndex - 1 || next < binStartIndex - 2) {
+					// First bin, or rounding moved the range back: fill the window again
+					head = tail = 0;
+					next = binEndIndex - 1;
+					j = findLastLess(sortedValues, 0, next + 1, sortedValues[next] - binWidth);
+				}
+				for (; next >= binStartIndex - 1; next--, scanned++) {
+					// The window start only moves left as the window end does
+					while (j >= 0 && sortedValues[j] >= sortedValues[next] - binWidth) {
+						j--;
+					}
+					// On ties the leftmost bin wins
+					while (tail > head && candidateCounts[tail - 1] <= next - j) {
+						tail--;
 					}
+					candidates[tail] = next;
+					candidateCounts[tail++] = next - j;
 				}
+				// Drop the bins ending within the current one
+				while (candidates[head] > binEndIndex - 1) {
+					head++;
+				}
+				leftBinCount = candidateCounts[head];
+				leftBinStartIndex = candidates[head] - leftBinCount + 1;
+				leftBinEndIndex = candidates[head];
 			}
 
+			if (budget != null && !budget.spend(scanned + 1)) {
+				// The bell ends at the current bin
+				currentMode.truncated = true;
+				break;
+			}
 			if (leftBinCount <= 0) {
 				break;
 			}
@@ -251,7 +447,7 @@ public class MathHelper
 				binCount = leftBinCount;
 				binStartIndex = leftBinStartIndex;
 				binEndIndex = leftBinEndIndex;
-				binCountTolerance = BIN_CNT_TOLER_kernel_percent * (binCount);
+				binCountTolerance = binCountTolerancePercent * (binCount);
 			}
 			else {
 				// the bin is outside the modal bell
@@ -260,26 +456,50 @@ public class MathHelper
 			if (binStartIndex <= 1) {
 				break;
 			}
-		} while (true);
+		}
 
 		// Find all the bins at the *right* of the central bin that are part of
 		// the same mode's bell. Stop when another local mode is detected.
 		binCount = currentMode.modeCount;
 		binStartIndex = modeStartIndex;
 		binEndIndex = modeEndIndex;
-		do {
+		head = tail = 0;
+		next = Integer.MIN_VALUE;
+		while (!currentMode.truncated) {
 			int rightBinCount = 0, rightBinStartIndex = 0, rightBinEndIndex = 0;
+			int scanned = 0;
 			if (binEndIndex < sortedValues.length - 1) {
-				for (int i = binStartIndex + 1; i <= binEndIndex + 1; i++) {
-					int j = findFirstGreater(sortedValues, i, sortedValues.length, sortedValues[i] + binWidth);
-					if (j - i >= rightBinCount) {
-						rightBinCount = j - i;
-						rightBinStartIndex = i;
-						rightBinEndIndex = j - 1;
+				if (next < binStartIndex + 1 || next > binEndIndex + 2) {
+					// First bin, or rounding moved the range back: fill the window again
+					head = tail = 0;
+					next = binStartIndex + 1;
+					j = findFirstGreater(sortedValues, next, sortedValues.length, sortedValues[next] + binWidth);
+				}
+				for (; next <= binEndIndex + 1; next++, scanned++) {
+					// The window end only moves right as the window start does
+					while (j < sortedValues.length && sortedValues[j] <= sortedValues[next] + binWidth) {
+						j++;
+					}
+					// On ties the rightmost bin wins
+					while (tail > head && candidateCounts[tail - 1] <= j - next) {
+						tail--;
 					}
+					candidates[tail] = next;
+					candidateCounts[tail++] = j - next;
 				}
+				// Drop the bins starting within the current one
+				while (candidates[head] < binStartIndex + 1) {
+					head++;
+				}
+				rightBinCount = candidateCounts[head];
+				rightBinStartIndex = candidates[head];
+				rightBinEndIndex = candidates[head] + rightBinCount - 1;
 			}
 
+			if (budget != null && !budget.spend(scanned + 1)) {
+				currentMode.truncated = true;
+				break;
+			}
 			if (rightBinCount <= 0) {
 				break;
 			}
@@ -291,7 +511,7 @@ public class MathHelper
 				binCount = rightBinCount;
 				binStartIndex = rightBinStartIndex;
 				binEndIndex = rightBinEndIndex;
-				binCountTolerance = BIN_CNT_TOLER_kernel_percent * (binCount);
+				binCountTolerance = binCountTolerancePercent * (binCount);
 			}
 			else {
 				// the bin is outside the modal bell
@@ -300,19 +520,19 @@ public class MathHelper
 			if (rightBinEndIndex >= dataValid.length - 2) {
 				break;
 			}
-		} while (true);
+		}
 
 		// Mark the values that make up this modal bell as invalid
 		Arrays.fill(dataValid, bellStartIndex, bellEndIndex + 1, false);
 
 		if (currentMode.modeCount <= BIN_NOISE) {
 			// Unimportant mode: try another one
-			return extractMode(sortedValues, dataValid, binWidth);
+			return UNIMPORTANT_MODE;
 		}
 		currentMode.bellKurtosis = getKurtosis(sortedValues, bellStartIndex, bellEndIndex);
 		if (currentMode.bellKurtosis == INVALID_KURTOSIS) {
 			// Unimportant mode: try another one
-			return extractMode(sortedValues, dataValid, binWidth);
+			return UNIMPORTANT_MODE;
 		}
 		return currentMode;
 	}
@@ -356,6 +576,30 @@ public class MathHelper
 	 * @return an array containing the calculated modes
 	 */
 	public static MathHelper.Mode[] calculateModes(double[] sortedValues, double binWidth)
+	{
+		return calculateModes(sortedValues, binWidth, null);
+	}
+
+	/**
+	 * Same as {@link #calculateModes(double[], double)}, but stops when the given budget is exhausted, returning the
+	 * modes found so far.
+	 * 
+	 * @param budget
+	 *            the work budget, or null for no limit
+	 */
+	public static MathHelper.Mode[] calculateModes(double[] sortedValues, double binWidth, WorkBudget budget)
+	{
+		return calculateModes(sortedValues, binWidth, BIN_CNT_TOLER_kernel_percent, budget);
+	}
+
+	/**
+	 * Same as {@link #calculateModes(double[], double, WorkBudget)}, but with a custom bin count tolerance.
+	 * 
+	 * @param binCountTolerance
+	 *            the tolerance used instead of {@link #BIN_CNT_TOLER_kernel_percent}
+	 */
+	public static MathHelper.Mode[] calculateModes(double[] sortedValues, double binWidth, double binCountTolerance,
+			WorkBudget budget)
 	{
 		MathHelper.Mode[] modes = new MathHelper.Mode[MAX_NUMBER_OF_MODES];
 		int count = 0;
@@ -366,7 +610,8 @@ public class MathHelper
 
 		MathHelper.Mode currentMode;
 		while (count < modes.length
-				&& (currentMode = MathHelper.extractMode(sortedValues, validCapacities, binWidth)) != null) {
+				&& (currentMode = MathHelper.extractMode(sortedValues, validCapacities, binWidth, binCountTolerance,
+						budget)) != null) {
 			modes[count++] = currentMode;
 		}
 		return ArrayHelper.copyOf(modes, count);
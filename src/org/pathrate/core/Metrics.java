@@ -0,0 +1,268 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of instruments measuring where the time of the measurements goes: counters, gauges and histograms of
+ * durations. Instruments are thread-safe and never allocate while recording, thus a registry can be shared by all the
+ * sessions of a process (see {@link SmartPathrate#setMetrics(Metrics)}), which then add up. Registered
+ * {@link IMetricsReporter}s export the current values when {@link #report()} is invoked.
+ */
+public class Metrics
+{
+	/**
+	 * An instrument, identified by a unique name.
+	 */
+	public static abstract class Metric
+	{
+		private final String name;
+		private final String help;
+
+		Metric(String name, String help)
+		{
+			this.name = name;
+			this.help = help;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Retrieves a short description of what is measured.
+		 */
+		public String getHelp()
+		{
+			return help;
+		}
+	}
+
+	/**
+	 * A value that only increases, e.g. the number of received packets.
+	 */
+	public static final class Counter extends Metric
+	{
+		private final AtomicLong count = new AtomicLong();
+
+		Counter(String name, String help)
+		{
+			super(name, help);
+		}
+
+		public void increment()
+		{
+			count.incrementAndGet();
+		}
+
+		public void add(long delta)
+		{
+			count.addAndGet(delta);
+		}
+
+		public long get()
+		{
+			return count.get();
+		}
+	}
+
+	/**
+	 * A value that can go up and down, e.g. the current train length.
+	 */
+	public static final class Gauge extends Metric
+	{
+		private volatile double value;
+
+		Gauge(String name, String help)
+		{
+			super(name, help);
+		}
+
+		public void set(double value)
+		{
+			this.value = value;
+		}
+
+		public double get()
+		{
+			return value;
+		}
+	}
+
+	/**
+	 * The distribution of durations in nanoseconds, in a fixed amount of memory. Like in HdrHistogram, values are
+	 * counted in buckets whose width doubles at each power of two, each power being split in 32 linear sub-buckets:
+	 * every value is thus known within about 3%, from nanoseconds to centuries. Quantiles read while values are
+	 * recorded are approximated.
+	 */
+	public static final class Histogram extends Metric
+	{
+		private static final int SUB_BUCKET_BITS = 5;
+		private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+		// The linear buckets of the values below SUB_BUCKET_COUNT, then SUB_BUCKET_COUNT buckets per power of two
+		private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (Long.SIZE - SUB_BUCKET_BITS);
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		Histogram(String name, String help)
+		{
+			super(name, help);
+		}
+
+		/**
+		 * Records a duration. Negative values are recorded as 0.
+		 */
+		public void record(long value)
+		{
+			value = Math.max(0, value);
+			buckets.incrementAndGet(getBucket(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long currentMax;
+			while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			}
+		}
+
+		private static int getBucket(long value)
+		{
+			if (value < SUB_BUCKET_COUNT) {
+				return (int) value;
+			}
+			int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return SUB_BUCKET_COUNT * (shift + 1) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		}
+
+		/**
+		 * Retrieves the highest value counted in a bucket.
+		 */
+		private static long getBucketUpperValue(int bucket)
+		{
+			if (bucket < SUB_BUCKET_COUNT) {
+				return bucket;
+			}
+			int shift = bucket / SUB_BUCKET_COUNT - 1;
+			long lowerValue = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+			return lowerValue + (1L << shift) - 1;
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		/**
+		 * Retrieves the sum of all the recorded values.
+		 */
+		public long getSum()
+		{
+			return sum.get();
+		}
+
+		public long getMax()
+		{
+			return max.get();
+		}
+
+		/**
+		 * Retrieves the value below which the given fraction of the recorded values falls.
+		 *
+		 * @param quantile
+		 *            a fraction between 0 and 1, e.g. 0.99
+		 * @return the highest value equivalent to the quantile, or 0 if nothing has been recorded
+		 */
+		public long getQuantile(double quantile)
+		{
+			long total = count.get();
+			if (total == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(quantile * total));
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				seen += buckets.get(i);
+				if (seen >= target) {
+					return Math.min(getBucketUpperValue(i), max.get());
+				}
+			}
+			return max.get();
+		}
+	}
+
+	private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+	private final List<IMetricsReporter> reporters = new CopyOnWriteArrayList<IMetricsReporter>();
+
+	/**
+	 * Retrieves the counter with the given name, registering it if needed.
+	 */
+	public Counter counter(String name, String help)
+	{
+		return register(new Counter(name, help), Counter.class);
+	}
+
+	/**
+	 * Retrieves the gauge with the given name, registering it if needed.
+	 */
+	public Gauge gauge(String name, String help)
+	{
+		return register(new Gauge(name, help), Gauge.class);
+	}
+
+	/**
+	 * Retrieves the histogram with the given name, registering it if needed.
+	 */
+	public Histogram histogram(String name, String help)
+	{
+		return register(new Histogram(name, help), Histogram.class);
+	}
+
+	private <T extends Metric> T register(T metric, Class<T> type)
+	{
+		Metric existing = metrics.putIfAbsent(metric.getName(), metric);
+		if (existing == null) {
+			return metric;
+		}
+		if (!type.isInstance(existing)) {
+			throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered as "
+					+ existing.getClass().getSimpleName());
+		}
+		return type.cast(existing);
+	}
+
+	/**
+	 * Retrieves all the instruments, sorted by name.
+	 */
+	public List<Metric> getMetrics()
+	{
+		return new ArrayList<Metric>(metrics.values());
+	}
+
+	public void addReporter(IMetricsReporter reporter)
+	{
+		reporters.add(reporter);
+	}
+
+	public void removeReporter(IMetricsReporter reporter)
+	{
+		reporters.remove(reporter);
+	}
+
+	/**
+	 * Exports the current values through all the reporters. It is invoked at the end of each receiver measurement,
+	 * and it can be invoked periodically from any thread.
+	 */
+	public void report() throws IOException
+	{
+		for (IMetricsReporter reporter : reporters) {
+			reporter.report(this);
+		}
+	}
+}
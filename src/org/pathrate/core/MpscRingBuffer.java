@@ -0,0 +1,86 @@
+package org.pathrate.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer. Each slot carries a sequence number telling
+ * whether it is free for the producer of a given position or filled for the consumer, so producers only contend on a
+ * compare-and-set of the tail and never block each other while writing their element.
+ */
+class MpscRingBuffer<E>
+{
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	// Accessed only by the consumer
+	private long head;
+
+	/**
+	 * Creates a queue.
+	 *
+	 * @param capacity
+	 *            the maximum number of elements, rounded up to a power of two
+	 */
+	MpscRingBuffer(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		elements = new AtomicReferenceArray<E>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds an element to the queue. It can be invoked by any thread.
+	 *
+	 * @return false if the queue is full
+	 */
+	boolean offer(E element)
+	{
+		while (true) {
+			long position = tail.get();
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference < 0) {
+				return false; // the consumer has not released the slot yet
+			}
+			if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+				elements.lazySet(index, element);
+				// A full barrier, so that a consumer going to sleep is seen after publishing
+				sequences.set(index, position + 1);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest element of the queue. It must be invoked by the consumer thread only.
+	 *
+	 * @return the element, or null if the queue is empty
+	 */
+	E poll()
+	{
+		int index = (int) (head & mask);
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, head + mask + 1);
+		head++;
+		return element;
+	}
+
+	/**
+	 * Checks whether the queue is empty. It must be invoked by the consumer thread only.
+	 */
+	boolean isEmpty()
+	{
+		return sequences.get((int) (head & mask)) != head + 1;
+	}
+}
@@ -0,0 +1,141 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * Estimates the capacity from the same recorded trains with many combinations of {@link EstimationParameters}, in
+ * parallel on a fork-join pool. The trains are shared by all the estimations, and never modified. The estimations
+ * save no statistics.
+ */
+public class ParameterSweep
+{
+	/**
+	 * Represents the outcome of an estimation with a combination of parameters.
+	 */
+	public static class Result
+	{
+		public EstimationParameters parameters;
+		public CapacityData data;
+	}
+
+	private final SmartPathrate pathrate;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a sweep engine running on the common number of cores.
+	 *
+	 * @param pathrate
+	 *            an installed instance, whose analysis settings are used for all the estimations
+	 */
+	public ParameterSweep(SmartPathrate pathrate)
+	{
+		this(pathrate, new ForkJoinPool());
+	}
+
+	public ParameterSweep(SmartPathrate pathrate, ForkJoinPool pool)
+	{
+		this.pathrate = pathrate;
+		this.pool = pool;
+	}
+
+	/**
+	 * Creates all the combinations of the given parameter values.
+	 */
+	public static List<EstimationParameters> createGrid(int[] minRequiredPairCapacities,
+			double[] maxKernelToUserLatencyVariations, double[] kernelToUserLatencyJumpFactors,
+			double[] binCountTolerances)
+	{
+		List<EstimationParameters> grid = new ArrayList<EstimationParameters>();
+		for (int minRequired : minRequiredPairCapacities) {
+			for (double maxktu : maxKernelToUserLatencyVariations) {
+				for (double jumpFactor : kernelToUserLatencyJumpFactors) {
+					for (double tolerance : binCountTolerances) {
+						EstimationParameters parameters = new EstimationParameters();
+						parameters.minRequiredPairCapacities = minRequired;
+						parameters.maxKernelToUserLatencyVariation = maxktu;
+						parameters.kernelToUserLatencyJumpFactor = jumpFactor;
+						parameters.binCountTolerance = tolerance;
+						grid.add(parameters);
+					}
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Estimates the capacity from the given trains with each combination of parameters.
+	 *
+	 * @param trace
+	 *            the recorded trains, e.g. loaded with {@link TraceReplay#load(java.io.File)}
+	 * @param grid
+	 *            the combinations of parameters
+	 * @return the results, in the same order as the grid
+	 * @throws IOException
+	 *             if an estimation fails
+	 */
+	public Result[] run(TraceReplay.Trace trace, List<EstimationParameters> grid) throws IOException
+	{
+		Result[] results = new Result[grid.size()];
+		SweepTask task = new SweepTask(trace, grid, results, 0, grid.size());
+		pool.invoke(task);
+		if (task.error != null) {
+			throw task.error;
+		}
+		return results;
+	}
+
+	/**
+	 * Estimates a range of the grid, splitting it in halves until a single combination is left.
+	 */
+	private class SweepTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final TraceReplay.Trace trace;
+		private final List<EstimationParameters> grid;
+		private final Result[] results;
+		private final int start, end;
+		IOException error;
+
+		SweepTask(TraceReplay.Trace trace, List<EstimationParameters> grid, Result[] results, int start, int end)
+		{
+			this.trace = trace;
+			this.grid = grid;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start > 1) {
+				int middle = (start + end) >>> 1;
+				SweepTask left = new SweepTask(trace, grid, results, start, middle);
+				SweepTask right = new SweepTask(trace, grid, results, middle, end);
+				invokeAll(left, right);
+				error = left.error != null ? left.error : right.error;
+				return;
+			}
+			if (end == start) {
+				return;
+			}
+			Result result = new Result();
+			result.parameters = grid.get(start);
+			try {
+				result.data = new TraceReplay(pathrate.copyWithParameters(result.parameters)).replay(trace);
+			}
+			catch (IOException e) {
+				error = e;
+			}
+			results[start] = result;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.pathrate.core;
+
+/**
+ * The instruments updated by the sender and the receiver, looked up once in a {@link Metrics} registry. Durations are
+ * recorded in nanoseconds.
+ */
+class PathrateMetrics
+{
+	final Metrics registry;
+
+	// Receiver
+	final Metrics.Counter packetsReceived;
+	final Metrics.Counter stalePackets;
+	final Metrics.Counter trainsAcked;
+	final Metrics.Counter trainsNegAcked;
+	final Metrics.Counter roundsAborted;
+	final Metrics.Counter rounds;
+	final Metrics.Histogram trainReceiveTime;
+	final Metrics.Histogram spacingSleepTime;
+	final Metrics.Histogram roundAnalysisTime;
+	final Metrics.Gauge trainLength;
+	final Metrics.Gauge trainSpacing;
+	final Metrics.Gauge capacityEstimateLower;
+	final Metrics.Gauge capacityEstimateUpper;
+
+	// Sender
+	final Metrics.Counter trainsSent;
+
+	PathrateMetrics(Metrics registry)
+	{
+		this.registry = registry;
+		packetsReceived = registry.counter("pathrate_packets_received_total",
+				"Probe packets received, including the ones out of order.");
+		stalePackets = registry.counter("pathrate_stale_packets_total",
+				"Packets of previous trains drained before requesting a train.");
+		trainsAcked = registry.counter("pathrate_trains_acked_total", "Trains received completely (ACK_TRAIN).");
+		trainsNegAcked = registry.counter("pathrate_trains_neg_acked_total",
+				"Bad trains, lost after a receive timeout (NEG_ACK_TRAIN).");
+		roundsAborted = registry.counter("pathrate_rounds_aborted_total",
+				"Rounds interrupted because too many trains were lost.");
+		rounds = registry.counter("pathrate_rounds_total", "Rounds estimated.");
+		trainReceiveTime = registry.histogram("pathrate_train_receive_seconds",
+				"Time from the request of a train to its last packet or timeout.");
+		spacingSleepTime = registry.histogram("pathrate_spacing_sleep_seconds",
+				"Time spent waiting between trains.");
+		roundAnalysisTime = registry.histogram("pathrate_round_analysis_seconds",
+				"Time spent estimating the capacity at the end of a round.");
+		trainLength = registry.gauge("pathrate_train_length", "Packets per train in the current round.");
+		trainSpacing = registry.gauge("pathrate_train_spacing_seconds", "Current spacing between trains.");
+		capacityEstimateLower = registry.gauge("pathrate_capacity_estimate_lower_mbps",
+				"Lower bound of the latest capacity estimate.");
+		capacityEstimateUpper = registry.gauge("pathrate_capacity_estimate_upper_mbps",
+				"Upper bound of the latest capacity estimate.");
+		trainsSent = registry.counter("pathrate_trains_sent_total", "Trains sent.");
+	}
+}
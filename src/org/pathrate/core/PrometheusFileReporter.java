@@ -0,0 +1,78 @@
+package org.pathrate.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Writes the metrics to a file in the Prometheus text format, e.g. for the textfile collector of the node exporter.
+ * Histograms are exported as summaries, in seconds. The file is replaced atomically where the file system allows it,
+ * so that it is never read half-written.
+ */
+public class PrometheusFileReporter implements IMetricsReporter
+{
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+	private static final double NANOSECONDS_PER_SECOND = 1000. * 1000 * 1000;
+
+	private final File file;
+
+	/**
+	 * @param file
+	 *            the file to write, whose name should end with .prom
+	 */
+	public PrometheusFileReporter(File file)
+	{
+		this.file = file;
+	}
+
+	public synchronized void report(Metrics metrics) throws IOException
+	{
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8"));
+		try {
+			for (Metrics.Metric metric : metrics.getMetrics()) {
+				write(writer, metric);
+			}
+		}
+		finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Cannot write " + temporaryFile);
+		}
+		if (!temporaryFile.renameTo(file)) {
+			// Some file systems do not replace an existing file
+			file.delete();
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("Cannot replace " + file);
+			}
+		}
+	}
+
+	private static void write(PrintWriter writer, Metrics.Metric metric)
+	{
+		String name = metric.getName();
+		writer.print("# HELP " + name + " " + metric.getHelp() + "\n");
+		if (metric instanceof Metrics.Counter) {
+			writer.print("# TYPE " + name + " counter\n");
+			writer.print(name + " " + ((Metrics.Counter) metric).get() + "\n");
+		}
+		else if (metric instanceof Metrics.Gauge) {
+			writer.print("# TYPE " + name + " gauge\n");
+			writer.print(name + " " + ((Metrics.Gauge) metric).get() + "\n");
+		}
+		else if (metric instanceof Metrics.Histogram) {
+			Metrics.Histogram histogram = (Metrics.Histogram) metric;
+			writer.print("# TYPE " + name + " summary\n");
+			for (double quantile : QUANTILES) {
+				writer.print(name + "{quantile=\"" + quantile + "\"} "
+						+ histogram.getQuantile(quantile) / NANOSECONDS_PER_SECOND + "\n");
+			}
+			writer.print(name + "{quantile=\"1.0\"} " + histogram.getMax() / NANOSECONDS_PER_SECOND + "\n");
+			writer.print(name + "_sum " + histogram.getSum() / NANOSECONDS_PER_SECOND + "\n");
+			writer.print(name + "_count " + histogram.getCount() + "\n");
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package org.pathrate.core;
+
+/**
+ * Timestamps packets with the time recorded by the receiver itself (see {@link IProbeReceiver#getReceiveTimestamp()}):
+ * the {@link System#nanoTime()} taken as soon as the socket call returned, before the packet header is parsed. It is
+ * still a user-space time, since the receivers based on the Java socket API cannot read the kernel receive time
+ * (SO_TIMESTAMPNS), thus it only excludes the parsing delays that {@link SystemTimestampSource} includes.
+ */
+public class ReceiveCallTimestampSource implements ITimestampSource
+{
+	public long getTimestamp(IProbeReceiver receiver)
+	{
+		return receiver.getReceiveTimestamp();
+	}
+}
@@ -0,0 +1,116 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Holds the state of a receiver session: its control stream, the parameters calculated at run-time and the buffers
+ * used to collect packet trains. Everything is allocated once, so that the loop receiving a train does not create any
+ * garbage (a GC pause in the middle of a train looks exactly like a jump).
+ */
+class ReceiveContext
+{
+	/**
+	 * The engine receiving the UDP packets of the trains.
+	 */
+	final IProbeReceiver receiver;
+	/**
+	 * The source of the arrival times of the packets.
+	 */
+	ITimestampSource timestampSource;
+	final InputStream tcpReader;
+	final OutputStream tcpWriter;
+	// A temporary big-endian buffer used to exchange control messages
+	final ByteBuffer fourByteBuffer = ByteBuffer.wrap(new byte[4]).order(ByteOrder.BIG_ENDIAN);
+
+	// Parameters calculated at run-time
+	int trainSpacing;
+	int probeTimeout;
+	long kernelToUserLatency; // ns
+	long minPossibleDelta; // ns
+	/**
+	 * Whether the sender embeds its send time in the probe packets.
+	 */
+	boolean sendTimestampsEnabled;
+
+	/**
+	 * The time (as given by {@link System#nanoTime()}) at which the last train ended.
+	 */
+	long lastTrainEnd;
+	/**
+	 * The thread analyzing the trains while the next ones are received, or null if trains are analyzed at the end of
+	 * each round on the receiving thread.
+	 */
+	ExecutorService analysisExecutor;
+	/**
+	 * The observer of the measurement, or null if none.
+	 */
+	ICapacityListener listener;
+	/**
+	 * The thread notifying the listener, or null if there is no listener.
+	 */
+	ExecutorService listenerExecutor;
+	/**
+	 * The instruments of the measurement, or null if there are no metrics.
+	 */
+	PathrateMetrics metrics;
+
+	/**
+	 * The number of packets of previous trains discarded before requesting the last train.
+	 */
+	int stalePackets;
+	/**
+	 * Describes the last train saved to the statistics.
+	 */
+	final TrainRecord trainRecord = new TrainRecord();
+
+	private long[][] timestamps = new long[0][0];
+	private long[][] sendTimestamps = new long[0][0];
+
+	ReceiveContext(IProbeReceiver receiver, Socket tcpSocket) throws IOException
+	{
+		this.receiver = receiver;
+		this.tcpReader = tcpSocket.getInputStream();
+		this.tcpWriter = tcpSocket.getOutputStream();
+	}
+
+	/**
+	 * Retrieves the arrays used to store the timestamps (ns) of a round of trains. Arrays are reallocated only when a
+	 * longer train is requested, thus they may be longer than trainLength.
+	 *
+	 * @param trainCount
+	 *            the number of trains in a round
+	 * @param trainLength
+	 *            the number of packets in each train
+	 * @return an array of at least trainCount arrays, each one long at least trainLength elements
+	 */
+	long[][] getTimestamps(int trainCount, int trainLength)
+	{
+		if (timestamps.length < trainCount || timestamps[0].length < trainLength) {
+			timestamps = new long[trainCount][trainLength];
+		}
+		return timestamps;
+	}
+
+	/**
+	 * Retrieves the arrays used to store the send times (ns, on the clock of the sender) of a round of trains, in the
+	 * same way as {@link #getTimestamps(int, int)}.
+	 *
+	 * @return an array of at least trainCount arrays, or null if the sender does not embed its send times
+	 */
+	long[][] getSendTimestamps(int trainCount, int trainLength)
+	{
+		if (!sendTimestampsEnabled) {
+			return null;
+		}
+		if (sendTimestamps.length < trainCount || sendTimestamps[0].length < trainLength) {
+			sendTimestamps = new long[trainCount][trainLength];
+		}
+		return sendTimestamps;
+	}
+}
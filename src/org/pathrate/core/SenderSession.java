@@ -0,0 +1,222 @@
+package org.pathrate.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.pathrate.core.SmartPathrate.Command;
+
+/**
+ * Serves the control stream of a single receiver, sending the packet trains it requests. Each session has its own
+ * state, thus many sessions can run concurrently on a sender.
+ */
+class SenderSession implements Runnable
+{
+	private final Socket tcpSocket;
+	private final IProbeSender probeSender;
+	private final BurstScheduler scheduler;
+	private final ISink sink;
+	private final ICancelTask task;
+	private final String name;
+	private final PathrateMetrics metrics;
+
+	// A temporary big-endian buffer used locally by many methods
+	private final ByteBuffer fourByteBuffer = ByteBuffer.wrap(new byte[4]).order(ByteOrder.BIG_ENDIAN);
+
+	private boolean cancelled;
+
+	/**
+	 * @param tcpSocket
+	 *            the control stream accepted from the receiver
+	 * @param probeSender
+	 *            the engine used to send the trains, owned by this session
+	 * @param scheduler
+	 *            the scheduler shared with the other sessions, or null if there are no concurrent sessions
+	 * @param sink
+	 *            the sink for log messages
+	 * @param task
+	 *            the task whose cancellation stops the session
+	 * @param metrics
+	 *            the instruments updated by the session, or null if there are no metrics
+	 */
+	SenderSession(Socket tcpSocket, IProbeSender probeSender, BurstScheduler scheduler, ISink sink, ICancelTask task,
+			PathrateMetrics metrics)
+	{
+		this.tcpSocket = tcpSocket;
+		this.probeSender = probeSender;
+		this.scheduler = scheduler;
+		this.sink = sink;
+		this.task = task;
+		this.metrics = metrics;
+		this.name = tcpSocket.getInetAddress().getHostAddress() + ":" + tcpSocket.getPort();
+	}
+
+	/**
+	 * Returns true if the session has been stopped because the task was cancelled.
+	 */
+	boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	public void run()
+	{
+		try {
+			serve();
+		}
+		catch (Throwable e) {
+			StringWriter writer = new StringWriter();
+			PrintWriter printWriter = new PrintWriter(writer);
+			e.printStackTrace(printWriter);
+			printWriter.flush();
+			sink.error("[" + name + "] " + writer.toString());
+		}
+		finally {
+			try {
+				tcpSocket.close();
+				probeSender.close();
+			}
+			catch (IOException e) {
+				sink.error("[" + name + "] " + e.getMessage());
+			}
+		}
+	}
+
+	private void serve() throws IOException, InterruptedException
+	{
+		InputStream tcpReader = tcpSocket.getInputStream();
+		OutputStream tcpWriter = tcpSocket.getOutputStream();
+
+		// Form receiving UDP address
+		InetAddress udpRemoteAddress = tcpSocket.getInetAddress();
+
+		int payloadSize = SmartPathrate.MAX_PAYLOAD_SIZE;
+		int trainLength = 3;
+		int trainId = 1;
+
+		Command commandCode = Command.ERROR;
+		int commandData;
+
+		sink.info("[" + name + "] Measuring Roud-Trip Time...");
+		estimateRoundTripTime(tcpReader, tcpWriter);
+
+		// Create random packet payload to deal with links that do payload
+		// compression
+		byte[] packetBuffer = new byte[SmartPathrate.MAX_PAYLOAD_SIZE];
+		Random random = new Random();
+		random.nextBytes(packetBuffer);
+		// The default port, until the receiver announces another one
+		probeSender.setDestination(new InetSocketAddress(udpRemoteAddress, SmartPathrate.UDP_RECEIVER_PORT),
+				packetBuffer);
+		probeSender.prepare(payloadSize, trainLength, trainId);
+
+		boolean done = false;
+
+		while (!done) {
+			sink.info("[" + name + "] Waiting for commands...");
+			do {
+				if (task.isCancelled()) {
+					cancelled = true;
+					sink.info("[" + name + "] Cancelled.");
+					return;
+				}
+				if (tcpReader.read(fourByteBuffer.array(), 0, 4) < 4) {
+					done = true;
+					break;
+				}
+				// Get the command and the data fields from the control
+				// message
+				commandData = fourByteBuffer.getInt(0) >> 8;
+				if (fourByteBuffer.get(3) >= Command.values().length) {
+					commandCode = Command.ERROR;
+				}
+				else {
+					commandCode = Command.values()[fourByteBuffer.get(3)];
+				}
+
+				sink.info(String.format("[%s] [%08X] %s(%d)", name, fourByteBuffer.getInt(0), commandCode,
+						commandData));
+
+				switch (commandCode) {
+				case PAYLOAD_SIZE:
+					payloadSize = commandData;
+					probeSender.prepare(payloadSize, trainLength, trainId);
+					break;
+				case TRAIN_LENGTH:
+					trainLength = commandData;
+					probeSender.prepare(payloadSize, trainLength, trainId);
+					break;
+				case SEND:
+					trainId = commandData;
+					break;
+				case RECEIVER_PORT:
+					probeSender.setDestination(new InetSocketAddress(udpRemoteAddress, commandData), packetBuffer);
+					probeSender.prepare(payloadSize, trainLength, trainId);
+					break;
+				case SEND_TIMESTAMPS:
+					probeSender.setSendTimestamps(commandData != 0);
+					break;
+				case ACK_TRAIN:
+				case NEG_ACK_TRAIN:
+					// An ACK or NEG_ACK for a packet train
+					break;
+				case GAME_OVER:
+					// End of measurements
+					done = true;
+					break;
+
+				default:
+					sink.info("[" + name + "] Unexpected control message... aborting.");
+					done = true;
+				}
+			} while (commandCode != Command.SEND && !done);
+
+			if (!done && commandCode == Command.SEND) {
+				if (scheduler == null) {
+					probeSender.sendTrain(trainId);
+				}
+				else {
+					scheduler.acquire();
+					try {
+						probeSender.sendTrain(trainId);
+					}
+					finally {
+						scheduler.release();
+					}
+				}
+				if (metrics != null) {
+					metrics.trainsSent.increment();
+				}
+				// The receiver always requests the following train id
+				trainId++;
+				probeSender.prepare(payloadSize, trainLength, trainId);
+			}
+		}
+	}
+
+	/**
+	 * Allows the receiver to measure the round-trim time, echoing received packets.
+	 * 
+	 * @param reader
+	 *            the input stream associated to the TCP socket
+	 * @param writer
+	 *            the output stream associated to the TCP socket
+	 * @throws IOException
+	 */
+	private void estimateRoundTripTime(InputStream reader, OutputStream writer) throws IOException
+	{
+		for (int i = 0; i < SmartPathrate.RTT_ATTEMPTS; i++) {
+			reader.read(fourByteBuffer.array());
+			writer.write(fourByteBuffer.array());
+			writer.flush();
+		}
+	}
+}
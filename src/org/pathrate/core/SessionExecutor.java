@@ -0,0 +1,207 @@
+package org.pathrate.core;
+
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs measurement sessions, each one on its own thread. When the JVM supports virtual threads they are used, so that
+ * thousands of blocking sessions can be hosted without a platform thread each; otherwise a platform thread is started
+ * per session.
+ * <p>
+ * An {@link IPathrate} keeps the state of a single measurement, thus each submitted session needs its own instance.
+ * Concurrent receivers on the same host also need their own UDP port (see {@link SmartPathrate#setReceiverPort(int)})
+ * and statistics (see {@link SmartPathrate#setStatsRecorder(StatsRecorder)}).
+ * <p>
+ * A {@link LegacyPathrate} keeps the sockets and the data of its session in its fields, and its receivers all bind
+ * the same UDP port: an instance already running a session is rejected, and so is a legacy receiver while another one
+ * is running.
+ */
+public class SessionExecutor
+{
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+	private static final ThreadFactory DEFAULT_THREAD_FACTORY = VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY
+			: Executors.defaultThreadFactory();
+
+	// The LegacyPathrate instances running a session, and the one running as receiver, if any
+	private static final Set<LegacyPathrate> legacySessions = Collections
+			.newSetFromMap(new IdentityHashMap<LegacyPathrate, Boolean>());
+	private static LegacyPathrate legacyReceiver;
+
+	private final ThreadFactory threadFactory;
+
+	/**
+	 * Creates an executor that runs sessions on virtual threads, if available.
+	 */
+	public SessionExecutor()
+	{
+		this(DEFAULT_THREAD_FACTORY);
+	}
+
+	/**
+	 * Creates an executor that runs sessions on the threads created by the given factory.
+	 */
+	public SessionExecutor(ThreadFactory threadFactory)
+	{
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Retrieves a factory of virtual threads if the JVM supports them, or else a factory of platform threads.
+	 */
+	public static ThreadFactory getDefaultThreadFactory()
+	{
+		return DEFAULT_THREAD_FACTORY;
+	}
+
+	/**
+	 * Returns true if sessions run on virtual threads by default.
+	 */
+	public static boolean isVirtualThreadsSupported()
+	{
+		return VIRTUAL_THREAD_FACTORY != null;
+	}
+
+	private static ThreadFactory createVirtualThreadFactory()
+	{
+		// Virtual threads are looked up by reflection, since they are not available on older JVMs (and on Android)
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = ofVirtual.getReturnType().getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a receiver session.
+	 * 
+	 * @param pathrate
+	 *            an installed instance, not used by any other session
+	 * @param senderAddress
+	 *            the address of the sender
+	 * @param task
+	 *            the task whose cancellation stops the session
+	 * @return a future giving the capacity data of the measurement
+	 * @throws IllegalArgumentException
+	 *             if the instance is a {@link LegacyPathrate} already running a session
+	 * @throws IllegalStateException
+	 *             if the instance is a {@link LegacyPathrate} and another one is running as receiver
+	 */
+	public Future<IPathrate.CapacityData> submitReceiver(final IPathrate pathrate, final InetAddress senderAddress,
+			final ICancelTask task)
+	{
+		final LegacyPathrate legacy = pathrate instanceof LegacyPathrate ? (LegacyPathrate) pathrate : null;
+		startLegacySession(legacy, true);
+		boolean submitted = false;
+		try {
+			Future<IPathrate.CapacityData> future = submit(new Callable<IPathrate.CapacityData>() {
+				public IPathrate.CapacityData call() throws Exception
+				{
+					try {
+						pathrate.startAsReceiver(senderAddress, task);
+						return pathrate.getCapacityData();
+					}
+					finally {
+						endLegacySession(legacy);
+					}
+				}
+			});
+			submitted = true;
+			return future;
+		}
+		finally {
+			if (!submitted) {
+				endLegacySession(legacy);
+			}
+		}
+	}
+
+	/**
+	 * Starts a sender session.
+	 * 
+	 * @param pathrate
+	 *            an installed instance, not used by any other session
+	 * @param task
+	 *            the task whose cancellation stops the session
+	 * @return a future completed when the sender stops
+	 * @throws IllegalArgumentException
+	 *             if the instance is a {@link LegacyPathrate} already running a session
+	 */
+	public Future<Void> submitSender(final IPathrate pathrate, final ICancelTask task)
+	{
+		final LegacyPathrate legacy = pathrate instanceof LegacyPathrate ? (LegacyPathrate) pathrate : null;
+		startLegacySession(legacy, false);
+		boolean submitted = false;
+		try {
+			Future<Void> future = submit(new Callable<Void>() {
+				public Void call() throws Exception
+				{
+					try {
+						pathrate.startAsSender(task);
+						return null;
+					}
+					finally {
+						endLegacySession(legacy);
+					}
+				}
+			});
+			submitted = true;
+			return future;
+		}
+		finally {
+			if (!submitted) {
+				endLegacySession(legacy);
+			}
+		}
+	}
+
+	/**
+	 * Registers the session of a legacy instance, if any, rejecting it if it cannot run concurrently with the running
+	 * sessions.
+	 */
+	private static synchronized void startLegacySession(LegacyPathrate legacy, boolean receiver)
+	{
+		if (legacy == null) {
+			return;
+		}
+		if (legacySessions.contains(legacy)) {
+			throw new IllegalArgumentException("The LegacyPathrate instance is already running a session");
+		}
+		if (receiver) {
+			if (legacyReceiver != null) {
+				throw new IllegalStateException("Another LegacyPathrate instance is running as receiver");
+			}
+			legacyReceiver = legacy;
+		}
+		legacySessions.add(legacy);
+	}
+
+	private static synchronized void endLegacySession(LegacyPathrate legacy)
+	{
+		if (legacy == null) {
+			return;
+		}
+		legacySessions.remove(legacy);
+		if (legacyReceiver == legacy) {
+			legacyReceiver = null;
+		}
+	}
+
+	private <T> Future<T> submit(Callable<T> session)
+	{
+		FutureTask<T> future = new FutureTask<T>(session);
+		threadFactory.newThread(future).start();
+		return future;
+	}
+}
@@ -5,8 +5,18 @@ import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.Random;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An implementation of pathrate for Wi-Fi devices. An instance keeps the state of a single receiver measurement (run
+ * concurrent measurements on separate instances, for example through a {@link SessionExecutor}), while as a sender it
+ * can serve several receivers concurrently.
+ */
 public class SmartPathrate implements IPathrate
 {
 	protected static final int TCP_SENDER_PORT = 13000;
@@ -26,6 +36,25 @@ public class SmartPathrate implements IPathrate
 
 	protected static final int MIN_REQUIRED_PAIR_CAPACITIES = 1000;
 
+	/**
+	 * The minimum time (in milliseconds) between trains of different sessions of a concurrent sender.
+	 */
+	protected static final int MIN_BURST_GAP = 1;
+
+	/**
+	 * Represents the Java API used to send or receive the UDP packets of the trains.
+	 */
+	public enum Transport {
+		/**
+		 * A blocking {@link DatagramSocket}.
+		 */
+		DATAGRAM_SOCKET,
+		/**
+		 * A non-blocking {@link java.nio.channels.DatagramChannel} with direct buffers.
+		 */
+		DATAGRAM_CHANNEL
+	}
+
 	/**
 	 * Represents a command used for interaction between the sender and the receiver.
 	 */
@@ -37,25 +66,43 @@ public class SmartPathrate implements IPathrate
 		/**
 		 * The length of the train specified in number of packets.
 		 */
-		TRAIN_LENGTH, SEND, TRAIN_SENT, ACK_TRAIN, NEG_ACK_TRAIN, GAME_OVER, ERROR
+		TRAIN_LENGTH, SEND, TRAIN_SENT, ACK_TRAIN, NEG_ACK_TRAIN, GAME_OVER, ERROR,
+		/**
+		 * Whether the sender embeds its send time in the probe packets (1) or not (0). Appended to keep the codes of
+		 * the other commands.
+		 */
+		SEND_TIMESTAMPS,
+		/**
+		 * The UDP port where the receiver expects the probe packets, sent only when it is not
+		 * {@link SmartPathrate#UDP_RECEIVER_PORT}. Appended to keep the codes of the other commands.
+		 */
+		RECEIVER_PORT
 	}
 
 	public CapacityData capacityData;
-
-	// A temporary big-endian buffer used locally by many methods
-	ByteBuffer fourByteBuffer = ByteBuffer.wrap(new byte[4]).order(ByteOrder.BIG_ENDIAN);
+	// Replaced at the end of each round, and read by any thread
+	private volatile CapacitySnapshot capacitySnapshot;
 
 	protected ISink sink;
 	private IConnectionSpeedProvider connectionSpeedProvider;
-	private InputStream tcpReader;
-	private OutputStream tcpWriter;
-	private DatagramSocket udpSocket;
 
-	// Parameters calculated at run-time
-	protected int trainSpacing;
-	protected int probeTimeout;
-	protected int kernelToUserLatency;
-	protected int minPossibleDelta;
+	private int receiverPort = UDP_RECEIVER_PORT;
+	private Transport receiverTransport = Transport.DATAGRAM_SOCKET;
+	private Transport senderTransport = Transport.DATAGRAM_SOCKET;
+	private ITimestampSource timestampSource = new SystemTimestampSource();
+	private ITrainScheduler trainScheduler = new FixedTrainScheduler();
+	private int maxSenderSessions = 1;
+	private ThreadFactory sessionThreadFactory = SessionExecutor.getDefaultThreadFactory();
+	private boolean pipelinedAnalysis;
+	private boolean sendTimestamps;
+	private boolean incrementalModes;
+	private long maxModeScannedValues;
+	private long maxModeExtractionTime;
+	private EstimationParameters estimationParameters = new EstimationParameters();
+	private ConvergenceDetector convergenceDetector;
+	private ICapacityListener capacityListener;
+	private StatsRecorder stats = Stats.getDefault();
+	private PathrateMetrics metrics;
 
 	/*
 	 * (non-Javadoc)
@@ -69,128 +116,287 @@ public class SmartPathrate implements IPathrate
 		this.connectionSpeedProvider = connectionSpeedProvider;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Sets the transport used by the receiver to collect packet trains. It takes effect at the next invocation of
+	 * {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setReceiverTransport(Transport transport)
+	{
+		receiverTransport = transport;
+	}
+
+	/**
+	 * Sets the UDP port where the receiver collects the probe packets, or 0 for a port chosen by the system. The
+	 * receiver tells the sender which port it is bound to. Concurrent receivers on the same host must use different
+	 * ports, e.g. all 0. The default is {@value #UDP_RECEIVER_PORT}, which also works with senders that do not support
+	 * the {@link Command#RECEIVER_PORT} command. It takes effect at the next invocation of
+	 * {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setReceiverPort(int port)
+	{
+		receiverPort = port;
+	}
+
+	/**
+	 * Sets the source of the arrival times of the probe packets, e.g. a {@link ReceiveCallTimestampSource} to rely on
+	 * the time recorded by the receiver. The default is a {@link SystemTimestampSource}. It takes effect at the next
+	 * invocation of {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setTimestampSource(ITimestampSource source)
+	{
+		timestampSource = source;
+	}
+
+	/**
+	 * Sets how the receiver spaces the trains and chooses their length, e.g. an {@link AdaptiveTrainScheduler}. The
+	 * default is a {@link FixedTrainScheduler}. It takes effect at the next invocation of
+	 * {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setTrainScheduler(ITrainScheduler scheduler)
+	{
+		trainScheduler = scheduler;
+	}
+
+	/**
+	 * Sets the transport used by the sender to emit packet trains. With {@link Transport#DATAGRAM_CHANNEL} all the
+	 * packets of a train are built before the SEND command arrives. It takes effect at the next invocation of
+	 * {@link #startAsSender(ICancelTask)}.
+	 */
+	public void setSenderTransport(Transport transport)
+	{
+		senderTransport = transport;
+	}
+
+	/**
+	 * Sets how many receivers can be served at the same time by the sender. When more than one session is allowed, each
+	 * one runs on its own thread and their trains are serialized, never overlapping. It takes effect at the next
+	 * invocation of {@link #startAsSender(ICancelTask)}.
 	 * 
-	 * @see org.pathrate.core.IPathrate#startAsSender()
+	 * @param maxSessions
+	 *            the maximum number of concurrent sessions (1 to serve receivers one at a time)
 	 */
-	public void startAsSender(ICancelTask task) throws IOException
+	public void setMaxSenderSessions(int maxSessions)
 	{
-		sink.info("Starting as sender (port " + TCP_SENDER_PORT + ")...");
-		ServerSocket listener = new ServerSocket(TCP_SENDER_PORT);
+		maxSenderSessions = maxSessions;
+	}
 
-		udpSocket = new DatagramSocket();
-		udpSocket.setSendBufferSize(UDP_BUFFER_SIZE);
-		sink.info("Sender UDP buffer size: " + udpSocket.getSendBufferSize() + " bytes.");
+	/**
+	 * Sets whether the receiver analyzes trains on a separate thread while it keeps receiving the next ones. The time
+	 * spent waiting for the analysis at the end of a round is then deducted from the spacing before the next train. It
+	 * takes effect at the next invocation of {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setPipelinedAnalysis(boolean pipelined)
+	{
+		pipelinedAnalysis = pipelined;
+	}
+
+	/**
+	 * Sets whether the receiver asks the sender to embed its send time in each probe packet. The receiver then
+	 * computes the one-way delay variation of each packet, and tells the gaps introduced by the sender from the ones
+	 * introduced by the path: the former are neither jumps nor valid packet pairs. The sender must support the
+	 * {@link Command#SEND_TIMESTAMPS} command. It takes effect at the next invocation of
+	 * {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setSendTimestamps(boolean enabled)
+	{
+		sendTimestamps = enabled;
+	}
 
-		interactive: do {
-			sink.info("Waiting for receiver to establish control stream...");
-			Socket tcpSocket = listener.accept();
-			sink.info("Connected to " + tcpSocket.getInetAddress().getHostAddress() + ":" + tcpSocket.getPort() + ".");
+	/**
+	 * Sets whether the receiver detects modes with an {@link IncrementalModeEstimator}, which only updates the bins
+	 * touched by the new trains instead of recomputing the modes over all the measurements at each round. It takes
+	 * effect at the next invocation of {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setIncrementalModes(boolean incremental)
+	{
+		incrementalModes = incremental;
+	}
 
-			try {
-				tcpReader = tcpSocket.getInputStream();
-				tcpWriter = tcpSocket.getOutputStream();
+	/**
+	 * Bounds the work spent detecting the modes of the pair and ADR capacities at each round. When the budget is
+	 * exhausted the modes found so far are used. It does not apply to an {@link IncrementalModeEstimator}, whose work
+	 * is already bounded by the number of bins.
+	 * 
+	 * @param maxScannedValues
+	 *            the maximum number of capacities scanned for each set of modes, or 0 for no limit
+	 * @param maxTime
+	 *            the maximum time (in milliseconds) spent for each set of modes, or 0 for no limit
+	 */
+	public void setModeExtractionBudget(long maxScannedValues, long maxTime)
+	{
+		maxModeScannedValues = maxScannedValues;
+		maxModeExtractionTime = maxTime;
+	}
 
-				// Form receiving UDP address
-				InetAddress udpRemoteAddress = tcpSocket.getInetAddress();
+	/**
+	 * Sets the constants used to estimate the capacity from the received trains. The given parameters are copied.
+	 */
+	public void setEstimationParameters(EstimationParameters parameters)
+	{
+		estimationParameters = new EstimationParameters(parameters);
+	}
 
-				int payloadSize = MAX_PAYLOAD_SIZE;
-				int trainLength = 3;
-				int trainId = 1;
+	/**
+	 * Sets the detector deciding when the estimate is precise enough to stop the measurement. When set, the receiver
+	 * stops as soon as the detector reports convergence, and the confidence interval is available in the capacity
+	 * data. When null (the default), it stops after a few rounds whose estimates are consistent with the previous one.
+	 */
+	public void setConvergenceDetector(ConvergenceDetector detector)
+	{
+		convergenceDetector = detector;
+	}
 
-				Command commandCode = Command.ERROR;
-				int commandData;
+	/**
+	 * Sets the observer notified after each train and each round of the receiver, or null (the default) for none. It
+	 * takes effect at the next invocation of {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setCapacityListener(ICapacityListener listener)
+	{
+		capacityListener = listener;
+	}
 
-				sink.info("Measuring Roud-Trip Time...");
-				estimateRoundTripTimeSender(tcpReader, tcpWriter);
+	/**
+	 * Sets the recorder of the statistics of the receiver. The default is the one shared by the process, see
+	 * {@link Stats}: concurrent measurements should each have their own. It should not be changed while a measurement
+	 * runs.
+	 */
+	public void setStatsRecorder(StatsRecorder recorder)
+	{
+		stats = recorder;
+	}
 
-				// Create random packet payload to deal with links that do payload
-				// compression
-				byte[] packetBuffer = new byte[MAX_PAYLOAD_SIZE];
-				Random random = new Random();
-				random.nextBytes(packetBuffer);
+	/**
+	 * Sets the registry of the instruments updated by the sender and the receiver, or null (the default) for none. A
+	 * registry can be shared by many instances, whose values then add up. It takes effect at the next invocation of
+	 * {@link #startAsSender(ICancelTask)} or {@link #startAsReceiver(InetAddress, ICancelTask)}.
+	 */
+	public void setMetrics(Metrics registry)
+	{
+		metrics = registry == null ? null : new PathrateMetrics(registry);
+	}
 
-				boolean done = false;
+	public EstimationParameters getEstimationParameters()
+	{
+		return new EstimationParameters(estimationParameters);
+	}
 
-				while (!done) {
-					sink.info("Waiting for commands...");
-					do {
-						if (task.isCancelled()) {
-							done = true;
-							sink.info("Cancelled.");
-							break interactive;
-						}
-						if (tcpReader.read(fourByteBuffer.array(), 0, 4) < 4) {
-							done = true;
-							break;
-						}
-						// Get the command and the data fields from the control
-						// message
-						commandData = fourByteBuffer.getInt(0) >> 8;
-						if (fourByteBuffer.get(3) >= Command.values().length) {
-							commandCode = Command.ERROR;
-						}
-						else {
-							commandCode = Command.values()[fourByteBuffer.get(3)];
-						}
+	/**
+	 * Creates an instance with the same analysis settings as this one, but different estimation parameters. It is used
+	 * to estimate the capacity from recorded trains, e.g. in a {@link ParameterSweep}. Copies save no statistics, since
+	 * many of them usually run concurrently and would write to the same files.
+	 */
+	SmartPathrate copyWithParameters(EstimationParameters parameters)
+	{
+		SmartPathrate copy = new SmartPathrate();
+		copy.install(sink, connectionSpeedProvider);
+		copy.incrementalModes = incrementalModes;
+		copy.maxModeScannedValues = maxModeScannedValues;
+		copy.maxModeExtractionTime = maxModeExtractionTime;
+		copy.convergenceDetector = convergenceDetector;
+		copy.stats = StatsRecorder.DISABLED;
+		copy.setEstimationParameters(parameters);
+		return copy;
+	}
 
-						sink.info(String.format("[%08X] %s(%d)", fourByteBuffer.getInt(0), commandCode, commandData));
+	/**
+	 * Sets the factory of the threads running concurrent sender sessions. By default, sessions run on virtual threads
+	 * if the JVM supports them.
+	 */
+	public void setSessionThreadFactory(ThreadFactory threadFactory)
+	{
+		sessionThreadFactory = threadFactory;
+	}
 
-						switch (commandCode) {
-						case PAYLOAD_SIZE:
-							payloadSize = commandData;
-							break;
-						case TRAIN_LENGTH:
-							trainLength = commandData;
-							break;
-						case SEND:
-							trainId = commandData;
-							break;
-						case ACK_TRAIN:
-						case NEG_ACK_TRAIN:
-							// An ACK or NEG_ACK for a packet train
-							break;
-						case GAME_OVER:
-							// End of measurements
-							done = true;
-							break;
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.pathrate.core.IPathrate#startAsSender()
+	 */
+	public void startAsSender(final ICancelTask task) throws IOException, InterruptedException
+	{
+		sink.info("Starting as sender (port " + TCP_SENDER_PORT + ")...");
+		final ServerSocket listener = new ServerSocket(TCP_SENDER_PORT);
+
+		if (maxSenderSessions <= 1) {
+			do {
+				sink.info("Waiting for receiver to establish control stream...");
+				Socket tcpSocket = listener.accept();
+				sink.info("Connected to " + tcpSocket.getInetAddress().getHostAddress() + ":" + tcpSocket.getPort()
+						+ ".");
+
+				SenderSession session = new SenderSession(tcpSocket, createProbeSender(), null, sink, task,
+						metrics);
+				session.run();
+				if (session.isCancelled()) {
+					break;
+				}
+			} while (true);
 
-						default:
-							sink.info("Unexpected control message... aborting.");
-							done = true;
+			listener.close();
+			return;
+		}
+
+		// Trains of different sessions are serialized, so they don't interfere with each other
+		BurstScheduler scheduler = new BurstScheduler(MIN_BURST_GAP * 1000 * 1000);
+		final Semaphore freeSessions = new Semaphore(maxSenderSessions);
+		try {
+			do {
+				freeSessions.acquire();
+				sink.info("Waiting for receiver to establish control stream...");
+				Socket tcpSocket;
+				try {
+					tcpSocket = listener.accept();
+				}
+				catch (SocketException e) {
+					// The listener is closed when a session is cancelled
+					if (task.isCancelled()) {
+						break;
+					}
+					throw e;
+				}
+				sink.info("Connected to " + tcpSocket.getInetAddress().getHostAddress() + ":" + tcpSocket.getPort()
+						+ ".");
+
+				final SenderSession session = new SenderSession(tcpSocket, createProbeSender(), scheduler, sink, task,
+						metrics);
+				sessionThreadFactory.newThread(new Runnable() {
+					public void run()
+					{
+						try {
+							session.run();
+							if (session.isCancelled()) {
+								listener.close();
+							}
+						}
+						catch (IOException e) {
+							sink.error(e.getMessage());
 						}
-					} while (commandCode != Command.SEND && !done);
-
-					if (!done && commandCode == Command.SEND) {
-						DatagramPacket packet = new DatagramPacket(packetBuffer, 0, payloadSize, udpRemoteAddress,
-								UDP_RECEIVER_PORT);
-						// Each packet carries a packet id (unique in each train)
-						// and a round id (unique in the entire
-						// execution).
-						ByteBuffer buffer = ByteBuffer.wrap(packetBuffer).order(ByteOrder.BIG_ENDIAN);
-						buffer.putInt(0);
-						buffer.putInt(trainId);
-						for (int packetId = 0; packetId < trainLength; packetId++) {
-							buffer.position(0);
-							buffer.putInt(packetId);
-							udpSocket.send(packet);
+						finally {
+							freeSessions.release();
 						}
 					}
-				}
-
-				tcpSocket.close();
-			}
-			catch (Throwable e) {
-				StringWriter writer = new StringWriter();
-				PrintWriter printWriter = new PrintWriter(writer);
-				e.printStackTrace(printWriter);
-				printWriter.flush();
-				sink.error(writer.toString());
-			}
-		} while (true);
+				}).start();
+			} while (!task.isCancelled());
+		}
+		finally {
+			listener.close();
+		}
+	}
 
-		listener.close();
+	/**
+	 * Creates the engine used to send the trains of a sender session.
+	 */
+	private IProbeSender createProbeSender() throws IOException
+	{
+		IProbeSender probeSender;
+		if (senderTransport == Transport.DATAGRAM_CHANNEL) {
+			probeSender = new DatagramChannelProbeSender(UDP_BUFFER_SIZE);
+		}
+		else {
+			probeSender = new DatagramSocketProbeSender(UDP_BUFFER_SIZE);
+		}
+		sink.debug("Sender UDP buffer size (" + senderTransport + "): " + probeSender.getSendBufferSize() + " bytes.");
+		return probeSender;
 	}
 
 	/*
@@ -201,13 +407,17 @@ public class SmartPathrate implements IPathrate
 	public void startAsReceiver(InetAddress senderAddress, ICancelTask task) throws IOException, InterruptedException
 	{
 		sink.info("Starting as receiver...");
+		capacitySnapshot = null;
 
-		sink.info("Creating UDP socket...");
-		udpSocket = new DatagramSocket(null); // null as SocketAddress, to
-												// create an unbound socket
-		udpSocket.setReuseAddress(true);
-		udpSocket.setReceiveBufferSize(UDP_BUFFER_SIZE);
-		udpSocket.bind(new InetSocketAddress(UDP_RECEIVER_PORT));
+		sink.info("Creating UDP socket (" + receiverTransport + ")...");
+		IProbeReceiver receiver;
+		if (receiverTransport == Transport.DATAGRAM_CHANNEL) {
+			receiver = new DatagramChannelProbeReceiver(receiverPort, UDP_BUFFER_SIZE, MAX_PAYLOAD_SIZE);
+		}
+		else {
+			receiver = new DatagramSocketProbeReceiver(receiverPort, UDP_BUFFER_SIZE, MAX_PAYLOAD_SIZE);
+		}
+		sink.debug("Receiver UDP port: " + receiver.getLocalPort() + ".");
 
 		sink.info("Creating TCP connection (" + senderAddress.getHostAddress() + ":" + TCP_SENDER_PORT + ")...");
 		Socket tcpSocket = new Socket();
@@ -217,78 +427,124 @@ public class SmartPathrate implements IPathrate
 		catch (IOException e) {
 			sink.error("Cannot connect. Make sure that SmartPathrate runs at sender.");
 			tcpSocket.close();
+			receiver.close();
 			return;
 		}
 
-		tcpReader = tcpSocket.getInputStream();
-		tcpWriter = tcpSocket.getOutputStream();
+		ReceiveContext context = new ReceiveContext(receiver, tcpSocket);
+		context.timestampSource = timestampSource;
+		context.metrics = metrics;
 
 		final int payloadSize = MAX_PAYLOAD_SIZE, headersSize = IP_UDP_HEADER_SIZE;
 
 		sink.info(String.format("Estimating kernel-to-user latency for a UDP packet of %d bytes...", payloadSize));
-		kernelToUserLatency = calculateKernelToUserLatency(udpSocket, payloadSize);
-		sink.info(String.format("Kernel-to-user latency: %d µs.", kernelToUserLatency));
+		context.kernelToUserLatency = calculateKernelToUserLatency(receiver, context.timestampSource, payloadSize);
+		sink.info(String.format(Stats.locale, "Kernel-to-user latency: %.3f µs.",
+				context.kernelToUserLatency / 1000.));
 
 		sink.info("Measuring Round-Trip Time...");
-		final int roundTripTime = estimateRoundTripTimeReceiver(tcpReader, tcpWriter);
+		final int roundTripTime = estimateRoundTripTimeReceiver(context);
 		sink.info(String.format("Round-Trip Time: %d ms.", roundTripTime));
 
-		final double trainSpacingMultiplier = 1.25;
-		trainSpacing = Math.max(MIN_TRAIN_SPACING, (int) (roundTripTime * trainSpacingMultiplier));
-		sink.info(String.format("Train spacing: %d ms.", trainSpacing));
+		final ITrainScheduler scheduler = trainScheduler;
+		scheduler.start(roundTripTime);
+		context.trainSpacing = scheduler.getTrainSpacing();
+		sink.info(String.format("Train spacing: %d ms.", context.trainSpacing));
 
-		probeTimeout = Math.max(MIN_PROBE_TIMEOUT, 3 * roundTripTime);
-		sink.info(String.format("Probe timeout: %d ms.", probeTimeout));
+		context.probeTimeout = Math.max(MIN_PROBE_TIMEOUT, 3 * roundTripTime);
+		sink.info(String.format("Probe timeout: %d ms.", context.probeTimeout));
 
 		// Keep a unique identifier for each train (train/measurement) in
 		// pathrate's execution.
 		int trainId = 0;
 
-		sendCommand(Command.PAYLOAD_SIZE, payloadSize);
+		sendCommand(context, Command.PAYLOAD_SIZE, payloadSize);
+		if (receiver.getLocalPort() != UDP_RECEIVER_PORT) {
+			sendCommand(context, Command.RECEIVER_PORT, receiver.getLocalPort());
+		}
+		if (sendTimestamps) {
+			sendCommand(context, Command.SEND_TIMESTAMPS, 1);
+			context.sendTimestampsEnabled = true;
+		}
+		context.lastTrainEnd = System.nanoTime();
+		if (pipelinedAnalysis) {
+			context.analysisExecutor = Executors.newSingleThreadExecutor(sessionThreadFactory);
+		}
+		if (capacityListener != null) {
+			context.listener = capacityListener;
+			context.listenerExecutor = Executors.newSingleThreadExecutor(sessionThreadFactory);
+		}
 
 		// Store a few parameters
 		long timerResolution = 0;
 		for (long first = System.nanoTime(); timerResolution == 0; timerResolution = System.nanoTime() - first) {
 		}
-		Stats.writeParam("timerresolution", timerResolution);
-		Stats.writeParam("kerneltouserlatency", kernelToUserLatency);
+		stats.writeParam("timerresolution", timerResolution);
+		stats.writeParam("kerneltouserlatency", context.kernelToUserLatency / 1000);
 
-		CapacityData data = new CapacityData();
+		CapacityData data = createCapacityData();
 		int totalBadTrains = 0, numberOfRounds = 0;
-		int maxCumulativeDispersion = 0, maxTrainLength = 0;
+		long maxCumulativeDispersion = 0;
+		int maxTrainLength = 0;
 		long startTime = System.nanoTime(), runningTime = startTime;
+		boolean cancelled = false;
 		try {
 			for (int trainLength = MINIMUM_TRAIN_LENGTH, round = 0; round < MAX_ROUND_COUNT; round++) {
-				sendCommand(Command.TRAIN_LENGTH, trainLength);
+				sendCommand(context, Command.TRAIN_LENGTH, trainLength);
 				sink.info("Train length: " + trainLength + " packets.");
+				if (context.metrics != null) {
+					context.metrics.trainLength.set(trainLength);
+				}
 
 				final int wifiSpeedMbps = (int) connectionSpeedProvider.detectWifiSpeed();
 				sink.info(String.format("Wi-Fi connection speed: %d Mbps.", wifiSpeedMbps));
 
-				minPossibleDelta = (headersSize + payloadSize) * 8 / wifiSpeedMbps;
-				sink.info(String.format("Minimum acceptable packet pair dispersion: %d µs.", minPossibleDelta));
+				context.minPossibleDelta = (headersSize + payloadSize) * 8 * 1000L / wifiSpeedMbps;
+				sink.info(String.format(Stats.locale, "Minimum acceptable packet pair dispersion: %.3f µs.",
+						context.minPossibleDelta / 1000.));
 
-				int[][] timestamps = new int[ROUND_SIZE][trainLength];
+				long[][] timestamps = context.getTimestamps(ROUND_SIZE, trainLength);
+				long[][] sendTimestamps = context.getSendTimestamps(ROUND_SIZE, trainLength);
 
-				int step = 0, nextTrainLength = (int) (1.25 * trainLength);
+				int step = 0, nextTrainLength = 0;
+				boolean aborted = false;
 				for (; step < ROUND_SIZE; step++) {
 					int badTrains = 0;
 					while (badTrains < MAX_BAD_TRAINS) {
-						Thread.sleep(trainSpacing);
-						int result = receiveTrain(payloadSize, trainLength, trainId, timestamps[step]);
+						if (task.isCancelled()) {
+							cancelled = true;
+							break;
+						}
+						context.trainSpacing = scheduler.getTrainSpacing();
+						if (context.metrics != null) {
+							context.metrics.trainSpacing.set(context.trainSpacing / 1000.);
+						}
+						sleepTrainSpacing(context);
+						int result = receiveTrain(context, trainLength, trainId, timestamps[step],
+								sendTimestamps == null ? null : sendTimestamps[step]);
+						context.lastTrainEnd = System.nanoTime();
+						notifyTrain(context, trainId, round, trainLength, timestamps[step], result);
 						trainId++; // Always increase train ID
+						scheduler.trainReceived(result == trainLength);
 						if (result == trainLength) {
 							break;
 						}
 						badTrains++;
 					}
+					if (cancelled) {
+						break;
+					}
 					totalBadTrains += badTrains;
 					if (badTrains >= MAX_BAD_TRAINS) {
-						nextTrainLength = trainLength - (int) (0.05 * trainLength);
+						nextTrainLength = scheduler.getNextTrainLength(trainLength, true, data);
+						aborted = true;
+						if (context.metrics != null) {
+							context.metrics.roundsAborted.increment();
+						}
 						if (nextTrainLength < MINIMUM_TRAIN_LENGTH && round > 0) {
 							sink.error("Cannot successfully receive packet trains.");
 							sink.error("Aborting.");
-							sendCommand(Command.GAME_OVER, 0);
+							sendCommand(context, Command.GAME_OVER, 0);
 							tcpSocket.close();
 							return;
 						}
@@ -296,139 +552,317 @@ public class SmartPathrate implements IPathrate
 					}
 
 					maxTrainLength = Math.max(maxTrainLength, trainLength);
-					int cumdisp = timestamps[step][trainLength - 1] - timestamps[step][0];
+					long cumdisp = timestamps[step][trainLength - 1] - timestamps[step][0];
 					maxCumulativeDispersion = Math.max(maxCumulativeDispersion, cumdisp);
-					Stats.saveTimestamps(timestamps[step]);
+					if (Stats.COMPILED_IN && stats.isEnabled()) {
+						TrainRecord train = context.trainRecord;
+						train.trainId = trainId - 1;
+						train.trainLength = trainLength;
+						train.packetSize = payloadSize + headersSize;
+						train.wifiSpeed = wifiSpeedMbps;
+						train.minPossibleDelta = context.minPossibleDelta;
+						train.kernelToUserLatency = context.kernelToUserLatency;
+						train.timestamps = timestamps[step];
+						stats.saveTrain(train);
+
+						stats.writeParam("wifispeed@%d", wifiSpeedMbps);
+						stats.writeParam("trainlength@%d", trainLength);
+						stats.writeParam("minpossibledelta@%d", context.minPossibleDelta / 1000);
+					}
 
-					Stats.writeParam("wifispeed@%d", wifiSpeedMbps);
-					Stats.writeParam("trainlength@%d", trainLength);
-					Stats.writeParam("minpossibledelta@%d", minPossibleDelta);
+					if (context.analysisExecutor != null) {
+						analyzeTrainLater(context, data, timestamps[step],
+								sendTimestamps == null ? null : sendTimestamps[step], trainLength,
+								payloadSize + headersSize);
+					}
+				}
+				if (cancelled && step == 0) {
+					break;
+				}
+				if (Stats.COMPILED_IN && stats.isEnabled()) {
+					stats.saveEndOfRound(round, step);
 				}
 				numberOfRounds++;
-				estimateCapacity(data, timestamps, step, trainLength, payloadSize + headersSize);
-
-				Stats.writeParam("numberofrounds@%d", numberOfRounds);
-				Stats.writeParam("numberoftrains@%d", data.numberOfTrains);
-				Stats.writeParam("badtrains@%d", totalBadTrains);
-				Stats.writeParam("maxtrainlength@%d", maxTrainLength);
-				Stats.writeParam("binwidth@%d", data.binWidth);
-
-				if (data.prevCapacityEstimateUpper != 0) {
-					double middleCapacity = (data.capacityEstimateLower + data.capacityEstimateUpper) / 2;
-					if (middleCapacity >= data.prevCapacityEstimateLower
-							&& middleCapacity <= data.prevCapacityEstimateUpper) {
-						if (data.canStop == 3) {
-							break;
-						}
-						data.canStop++;
-					}
+				long analysisStart = System.nanoTime();
+				if (context.analysisExecutor != null) {
+					estimateRoundLater(context, data, step, trainLength, payloadSize + headersSize);
+				}
+				else {
+					estimateCapacity(data, timestamps, sendTimestamps, step, trainLength, payloadSize + headersSize,
+							context.minPossibleDelta, context.kernelToUserLatency);
+				}
+				if (context.metrics != null) {
+					context.metrics.roundAnalysisTime.record(System.nanoTime() - analysisStart);
+					context.metrics.rounds.increment();
+					context.metrics.capacityEstimateLower.set(data.capacityEstimateLower);
+					context.metrics.capacityEstimateUpper.set(data.capacityEstimateUpper);
+				}
+
+				stats.writeParam("numberofrounds@%d", numberOfRounds);
+				stats.writeParam("numberoftrains@%d", data.numberOfTrains);
+				stats.writeParam("badtrains@%d", totalBadTrains);
+				stats.writeParam("maxtrainlength@%d", maxTrainLength);
+				stats.writeParam("binwidth@%d", data.binWidth);
+				stats.writeParam("trainspacing@%d", context.trainSpacing);
+				publishRound(context, data, round);
+
+				if (canStop(data) || cancelled) {
+					break;
 				}
 
-				Stats.writeResult("canstop@%d", data.canStop);
-				Stats.writeResult("runningtime@%d", (System.nanoTime() - startTime) / (1000 * 1000 * 1000));
-				Stats.writeResult("totaldatasent@%d", data.totalBytesSent);
-				Stats.writeResult("numberofcapacityestimates@%d", data.pairCapacities.length);
-				Stats.writeResult("capacityresolution@%d", "%.2f", data.binWidth);
-				Stats.writeResult("adr@%d", "%.1f", data.adrValue);
-				Stats.writeResult("finalcapacityestimatelower@%d", "%.2f", data.capacityEstimateLower);
-				Stats.writeResult("finalcapacityestimateupper@%d", "%.2f", data.capacityEstimateUpper);
-				Stats.writeResult("status@%d", data.status);
+				stats.writeResult("canstop@%d", data.canStop);
+				if (convergenceDetector != null) {
+					stats.writeResult("confidencelower@%d", "%.2f", data.confidenceLower);
+					stats.writeResult("confidenceupper@%d", "%.2f", data.confidenceUpper);
+				}
+				stats.writeResult("runningtime@%d", (System.nanoTime() - startTime) / (1000 * 1000 * 1000));
+				stats.writeResult("totaldatasent@%d", data.totalBytesSent);
+				stats.writeResult("numberofcapacityestimates@%d", data.pairCapacities.size());
+				stats.writeResult("capacityresolution@%d", "%.2f", data.binWidth);
+				stats.writeResult("adr@%d", "%.1f", data.adrValue);
+				stats.writeResult("finalcapacityestimatelower@%d", "%.2f", data.capacityEstimateLower);
+				stats.writeResult("finalcapacityestimateupper@%d", "%.2f", data.capacityEstimateUpper);
+				stats.writeResult("status@%d", data.status);
 				if (data.done) {
 					break;
 				}
+				if (!aborted) {
+					nextTrainLength = scheduler.getNextTrainLength(trainLength, false, data);
+				}
 				trainLength = nextTrainLength;
 			}
 			runningTime = (System.nanoTime() - startTime) / (1000 * 1000 * 1000);
+			if (cancelled) {
+				sink.info("Measurement cancelled.");
+			}
 
-			sendCommand(Command.GAME_OVER, 0);
+			sendCommand(context, Command.GAME_OVER, 0);
+
+			// Save execution's parameters
+			stats.writeParam("numberofrounds", numberOfRounds);
+			stats.writeParam("numberoftrains", data.numberOfTrains);
+			stats.writeParam("badtrains", totalBadTrains);
+			// Only useful for pgf plots
+			stats.writeParam("maxtrainlength", maxTrainLength);
+			stats.writeParam("maxcumulativedispersion", maxCumulativeDispersion / 1000);
+
+			// Save results
+			stats.writeResult("runningtime", runningTime);
+			stats.writeResult("totaldatasent", data.totalBytesSent);
+			stats.writeResult("numberofcapacityestimates", data.pairCapacities.size());
+			stats.writeResult("capacityresolution", "%.2f", data.binWidth);
+			stats.writeResult("adr", "%.1f", data.adrValue);
+			stats.writeResult("finalcapacityestimatelower", "%.2f", data.capacityEstimateLower);
+			stats.writeResult("finalcapacityestimateupper", "%.2f", data.capacityEstimateUpper);
+			stats.writeResult("status", data.status);
+			if (convergenceDetector != null) {
+				stats.writeResult("confidencelower", "%.2f", data.confidenceLower);
+				stats.writeResult("confidenceupper", "%.2f", data.confidenceUpper);
+			}
 		}
 		finally {
 			tcpSocket.close();
+			receiver.close();
+			if (context.analysisExecutor != null) {
+				context.analysisExecutor.shutdownNow();
+			}
+			if (context.listenerExecutor != null) {
+				// Pending notifications are still delivered
+				context.listenerExecutor.shutdown();
+			}
+			if (context.metrics != null) {
+				reportMetrics(context.metrics);
+			}
+			if (stats.isAsynchronous()) {
+				closeStats();
+			}
 		}
 
-		// Save execution's parameters
-		Stats.writeParam("numberofrounds", numberOfRounds);
-		Stats.writeParam("numberoftrains", data.numberOfTrains);
-		Stats.writeParam("badtrains", totalBadTrains);
-		// Only useful for pgf plots
-		Stats.writeParam("maxtrainlength", maxTrainLength);
-		Stats.writeParam("maxcumulativedispersion", maxCumulativeDispersion);
-
-		// Save results
-		Stats.writeResult("runningtime", runningTime);
-		Stats.writeResult("totaldatasent", data.totalBytesSent);
-		Stats.writeResult("numberofcapacityestimates", data.pairCapacities.length);
-		Stats.writeResult("capacityresolution", "%.2f", data.binWidth);
-		Stats.writeResult("adr", "%.1f", data.adrValue);
-		Stats.writeResult("finalcapacityestimatelower", "%.2f", data.capacityEstimateLower);
-		Stats.writeResult("finalcapacityestimateupper", "%.2f", data.capacityEstimateUpper);
-		Stats.writeResult("status", data.status);
-
 		capacityData = data;
 	}
 
+	/**
+	 * Waits for the statistics written asynchronously and closes their files at the end of a measurement, so that none
+	 * is lost when the process exits. Errors are only logged, like in {@link #reportMetrics(PathrateMetrics)}.
+	 */
+	private void closeStats()
+	{
+		try {
+			stats.reset();
+		}
+		catch (IOException e) {
+			sink.warning("Cannot write statistics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Exports the metrics at the end of a measurement. Errors are only logged, so that they do not hide the outcome
+	 * of the measurement.
+	 */
+	private void reportMetrics(PathrateMetrics metrics)
+	{
+		try {
+			metrics.registry.report();
+		}
+		catch (IOException e) {
+			sink.warning("Cannot report metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Waits before requesting the next train. With pipelined analysis only the part of the spacing not already elapsed
+	 * since the end of the last train is waited.
+	 */
+	private static void sleepTrainSpacing(ReceiveContext context) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		if (context.analysisExecutor == null) {
+			Thread.sleep(context.trainSpacing);
+		}
+		else {
+			long remaining = context.lastTrainEnd + context.trainSpacing * 1000L * 1000L - start;
+			if (remaining > 0) {
+				Thread.sleep(remaining / (1000 * 1000), (int) (remaining % (1000 * 1000)));
+			}
+		}
+		if (context.metrics != null) {
+			context.metrics.spacingSleepTime.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Queues the notification of a received train, if there is a listener. The arrival times are copied, so that the
+	 * summary is computed on the thread of the listener.
+	 * 
+	 * @param receivedPackets
+	 *            the number of packets received in order
+	 */
+	private static void notifyTrain(ReceiveContext context, final int trainId, final int round, final int trainLength,
+			long[] timestamps, int receivedPackets)
+	{
+		if (context.listenerExecutor == null) {
+			return;
+		}
+		final ICapacityListener listener = context.listener;
+		final long[] received = Arrays.copyOf(timestamps, receivedPackets);
+		final int stalePackets = context.stalePackets;
+		context.listenerExecutor.execute(new Runnable() {
+			public void run()
+			{
+				listener.trainReceived(new TrainSummary(trainId, round, trainLength, stalePackets, received));
+			}
+		});
+	}
+
+	/**
+	 * Publishes the estimate of a round as the current snapshot, and queues its notification if there is a listener.
+	 */
+	private void publishRound(ReceiveContext context, CapacityData data, int round)
+	{
+		final CapacitySnapshot snapshot = new CapacitySnapshot(data, round);
+		capacitySnapshot = snapshot;
+		if (context.listenerExecutor == null) {
+			return;
+		}
+		final ICapacityListener listener = context.listener;
+		context.listenerExecutor.execute(new Runnable() {
+			public void run()
+			{
+				listener.roundEstimated(snapshot);
+			}
+		});
+	}
+
+	/**
+	 * Queues the analysis of a train. The timestamps must not be modified until the round has been estimated.
+	 */
+	private void analyzeTrainLater(final ReceiveContext context, final CapacityData data, final long[] timestamps,
+			final long[] sendTimestamps, final int trainLength, final int packetSize)
+	{
+		final long minPossibleDelta = context.minPossibleDelta, kernelToUserLatency = context.kernelToUserLatency;
+		context.analysisExecutor.submit(new Callable<Void>() {
+			public Void call() throws Exception
+			{
+				analyzeTrain(data, timestamps, sendTimestamps, trainLength, packetSize, minPossibleDelta,
+						kernelToUserLatency);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Queues the estimate of a round after the analysis of its trains, and waits for it.
+	 */
+	private void estimateRoundLater(ReceiveContext context, final CapacityData data, final int tcount,
+			final int trainLength, final int packetSize) throws IOException, InterruptedException
+	{
+		Future<Void> future = context.analysisExecutor.submit(new Callable<Void>() {
+			public Void call() throws Exception
+			{
+				estimateRound(data, tcount, trainLength, packetSize);
+				return null;
+			}
+		});
+		try {
+			future.get();
+		}
+		catch (ExecutionException e) {
+			// The executor is FIFO: errors of previous trains are thrown while waiting for the round
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
 	/**
 	 * Calculates an approximated value for the kernel-to-user latency of a UDP packet (i.e. the total per-packet
 	 * processing time (transfer from NIC to kernel, processing at the kernel, and transfer at user space).
 	 * 
+	 * @param receiver
+	 *            the engine used to receive the packet trains
+	 * @param timestampSource
+	 *            the source of the arrival times, which must be comparable with {@link System#nanoTime()}
 	 * @param payloadSize
 	 *            the size of the UDP payload
-	 * @throws UnknownHostException
 	 * @throws IOException
-	 * @return an approximated value for the kernel-to-user latency
+	 * @return an approximated value for the kernel-to-user latency, in nanoseconds
 	 */
-	private static int calculateKernelToUserLatency(DatagramSocket udpSocket, int payloadSize)
-			throws UnknownHostException, IOException
+	private static long calculateKernelToUserLatency(IProbeReceiver receiver, ITimestampSource timestampSource,
+			int payloadSize) throws IOException
 	{
-		// Create random payload (maybe here it doesn't matter)
-		byte[] packetBuffer = new byte[MAX_PAYLOAD_SIZE];
-		Random random = new Random();
-		random.nextBytes(packetBuffer);
-		DatagramPacket packet = new DatagramPacket(packetBuffer, payloadSize, InetAddress.getByName(null),
-				UDP_RECEIVER_PORT);
-
 		int attempts = 400;
 		long[] kernelToUserLatencies = new long[attempts];
 		for (int i = 0; i < attempts; i++) {
-			udpSocket.send(packet);
+			receiver.sendToSelf(payloadSize);
 			long time = System.nanoTime();
-			udpSocket.receive(packet);
-			kernelToUserLatencies[i] = (System.nanoTime() - time) / 1000; // microseconds
+			receiver.receive(0);
+			kernelToUserLatencies[i] = timestampSource.getTimestamp(receiver) - time;
 		}
 		Arrays.sort(kernelToUserLatencies, 0, attempts);
-		return (int) kernelToUserLatencies[(int) (0.9 * attempts)];
-	}
-
-	/**
-	 * Allows the receiver to measure the round-trim time, echoing received packets.
-	 * 
-	 * @param reader
-	 *            the input stream associated to the UDP socket
-	 * @param writer
-	 *            the output stream associated to the UDP socket
-	 * @throws IOException
-	 */
-	private void estimateRoundTripTimeSender(InputStream reader, OutputStream writer) throws IOException
-	{
-		for (int i = 0; i < RTT_ATTEMPTS; i++) {
-			reader.read(fourByteBuffer.array());
-			writer.write(fourByteBuffer.array());
-			writer.flush();
-		}
+		return kernelToUserLatencies[(int) (0.9 * attempts)];
 	}
 
 	/**
 	 * Estimates the round-trip time transmitting a few packets to the sender and waiting for the replies.
 	 * 
-	 * @param reader
-	 *            the input stream associated to the UDP socket
-	 * @param writer
-	 *            the output stream associated to the UDP socket
+	 * @param context
+	 *            the receiver session, whose control stream is used
 	 * @return the estimated round-trip time in milliseconds
 	 * @throws IOException
 	 */
-	private int estimateRoundTripTimeReceiver(InputStream reader, OutputStream writer) throws IOException
+	private int estimateRoundTripTimeReceiver(ReceiveContext context) throws IOException
 	{
+		InputStream reader = context.tcpReader;
+		OutputStream writer = context.tcpWriter;
+		ByteBuffer fourByteBuffer = context.fourByteBuffer;
 		fourByteBuffer.putInt(0, (int) System.nanoTime()); // put a random value
 
 		long sumRtt = 0;
@@ -448,138 +882,333 @@ public class SmartPathrate implements IPathrate
 	/**
 	 * Sends a command and associated data through the TCP socket.
 	 * 
+	 * @param context
+	 *            the receiver session, whose control stream is used
 	 * @param command
 	 *            the command to be sent
 	 * @param data
 	 *            the data associated with the specified command
 	 * @throws IOException
 	 */
-	private void sendCommand(Command command, int data) throws IOException
+	private void sendCommand(ReceiveContext context, Command command, int data) throws IOException
+	{
+		writeCommand(context, command, data);
+		logCommand(command, data);
+	}
+
+	/**
+	 * Sends a command through the TCP socket without logging it, so that it can be used while a train is being
+	 * received.
+	 */
+	private static void writeCommand(ReceiveContext context, Command command, int data) throws IOException
+	{
+		context.fourByteBuffer.putInt(0, command.ordinal() | (data << 8));
+		context.tcpWriter.write(context.fourByteBuffer.array());
+	}
+
+	private void logCommand(Command command, int data)
 	{
-		int commandAndData = command.ordinal() | (data << 8);
-		fourByteBuffer.putInt(0, commandAndData);
-		tcpWriter.write(fourByteBuffer.array());
-		sink.debug(String.format("[%08X] %s(%d)", commandAndData, command, data));
+		sink.debug(String.format("[%08X] %s(%d)", command.ordinal() | (data << 8), command, data));
 	}
 
 	/**
 	 * Receive a complete packet train from the sender. If a packet is not received, its timestamp is set to 0.
 	 * 
-	 * @param payloadSize
-	 *            the size of the payload of each UDP packet
+	 * @param context
+	 *            the receiver session
 	 * @param trainLength
 	 *            the number of packets to receive
 	 * @param trainId
 	 *            a unique number identifying the current train
 	 * @param timestamps
-	 *            an array that will contain the measured timestamps. It must be long at least trainLength elements
+	 *            an array that will contain the measured timestamps (ns). It must be long at least trainLength
+	 *            elements
+	 * @param sendTimestamps
+	 *            an array that will contain the send times embedded in the packets, or null if the sender does not
+	 *            embed them
 	 * @return an integer specifying the number of packets received correctly (i.e., in order)
 	 * @throws IOException
 	 */
-	private int receiveTrain(int payloadSize, int trainLength, int trainId, int[] timestamps) throws IOException
+	private int receiveTrain(ReceiveContext context, int trainLength, int trainId, long[] timestamps,
+			long[] sendTimestamps) throws IOException
 	{
-		byte[] buffer = new byte[MAX_PAYLOAD_SIZE];
-		DatagramPacket packet = new DatagramPacket(buffer, payloadSize);
-		ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.BIG_ENDIAN);
+		IProbeReceiver receiver = context.receiver;
+		ITimestampSource timestampSource = context.timestampSource;
 
 		// Remove packets from buffer
-		udpSocket.setSoTimeout(10);
-		while (true) {
-			try {
-				udpSocket.receive(packet);
-				Stats.writeParam("oldPackets@" + trainId, true);
-			}
-			catch (InterruptedIOException e) {
-				break;
-			}
+		context.stalePackets = 0;
+		while (receiver.receive(10)) {
+			context.stalePackets++;
 		}
 
 		Arrays.fill(timestamps, 0, trainLength, 0);
-		udpSocket.setSoTimeout(probeTimeout);
-		sendCommand(Command.SEND, trainId);
+		long start = System.nanoTime();
+		writeCommand(context, Command.SEND, trainId);
 
-		int expectedPacketId = 0;
+		int expectedPacketId = 0, receivedPackets = 0;
 		while (expectedPacketId < trainLength) {
-			int timestamp;
-			try {
-				udpSocket.receive(packet);
-				timestamp = (int) (System.nanoTime() / 1000);
-			}
-			catch (InterruptedIOException e) {
-				sendCommand(Command.NEG_ACK_TRAIN, trainId);
+			if (!receiver.receive(context.probeTimeout)) {
+				writeCommand(context, Command.NEG_ACK_TRAIN, trainId);
+				logReceivedTrain(trainId, Command.NEG_ACK_TRAIN, context.stalePackets);
+				updateTrainMetrics(context.metrics, false, receivedPackets, context.stalePackets, start);
 				return expectedPacketId;
 			}
+			long timestamp = timestampSource.getTimestamp(receiver);
+			receivedPackets++;
 
-			int rcvPacketId = bb.getInt(0);
-			int rcvTrainId = bb.getInt(4);
+			int rcvPacketId = receiver.getPacketId();
+			int rcvTrainId = receiver.getTrainId();
 
 			if (rcvTrainId == trainId && rcvPacketId == expectedPacketId) {
 				timestamps[expectedPacketId] = timestamp;
+				if (sendTimestamps != null) {
+					sendTimestamps[expectedPacketId] = receiver.getSendTimestamp();
+				}
 				expectedPacketId++;
 			}
 			// If was received a packet from previous rounds, we just treat it
 			// as cross traffic
 			// (i.e., we ignore it)
 		}
-		sendCommand(Command.ACK_TRAIN, trainId);
+		writeCommand(context, Command.ACK_TRAIN, trainId);
+		logReceivedTrain(trainId, Command.ACK_TRAIN, context.stalePackets);
+		updateTrainMetrics(context.metrics, true, receivedPackets, context.stalePackets, start);
 		return expectedPacketId;
 	}
 
-	protected void estimateCapacity(CapacityData data, int[][] allTimestamps, int tcount, int trainLength,
-			int packetSize) throws FileNotFoundException
+	/**
+	 * Updates the metrics of a train, once it is over.
+	 * 
+	 * @param start
+	 *            the time (as given by {@link System#nanoTime()}) at which the train was requested
+	 */
+	private static void updateTrainMetrics(PathrateMetrics metrics, boolean complete, int receivedPackets,
+			int stalePackets, long start)
+	{
+		if (metrics == null) {
+			return;
+		}
+		metrics.trainReceiveTime.record(System.nanoTime() - start);
+		metrics.packetsReceived.add(receivedPackets);
+		metrics.stalePackets.add(stalePackets);
+		if (complete) {
+			metrics.trainsAcked.increment();
+		}
+		else {
+			metrics.trainsNegAcked.increment();
+		}
+	}
+
+	/**
+	 * Logs the commands exchanged for a train and the stale packets found before it, once the train is over.
+	 */
+	private void logReceivedTrain(int trainId, Command result, int stalePackets) throws FileNotFoundException
+	{
+		logCommand(Command.SEND, trainId);
+		logCommand(result, trainId);
+		if (Stats.COMPILED_IN && stalePackets > 0 && stats.isEnabled()) {
+			stats.writeParam("oldPackets@" + trainId, stalePackets);
+		}
+	}
+
+	/**
+	 * Creates the data of a new measurement, according to the current settings.
+	 */
+	CapacityData createCapacityData()
+	{
+		CapacityData data = new CapacityData();
+		if (incrementalModes) {
+			data.pairModeEstimator = new IncrementalModeEstimator(1, estimationParameters.binCountTolerance);
+			data.adrModeEstimator = new IncrementalModeEstimator(1, estimationParameters.binCountTolerance);
+		}
+		return data;
+	}
+
+	/**
+	 * Decides whether the measurement can stop after a round, according to the convergence detector if any.
+	 */
+	boolean canStop(CapacityData data)
+	{
+		if (convergenceDetector != null) {
+			return data.converged;
+		}
+		return isStable(data);
+	}
+
+	/**
+	 * Counts the consecutive rounds whose estimate falls within the previous one.
+	 * 
+	 * @return true if the estimate has been stable for enough rounds to stop the measurement
+	 */
+	protected static boolean isStable(CapacityData data)
+	{
+		if (data.prevCapacityEstimateUpper != 0) {
+			double middleCapacity = (data.capacityEstimateLower + data.capacityEstimateUpper) / 2;
+			if (middleCapacity >= data.prevCapacityEstimateLower && middleCapacity <= data.prevCapacityEstimateUpper) {
+				if (data.canStop == 3) {
+					return true;
+				}
+				data.canStop++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Analyzes a round of trains and estimates the capacity. All times are in nanoseconds.
+	 */
+	protected void estimateCapacity(CapacityData data, long[][] allTimestamps, int tcount, int trainLength,
+			int packetSize, long minPossibleDelta, long kernelToUserLatency) throws FileNotFoundException
+	{
+		estimateCapacity(data, allTimestamps, null, tcount, trainLength, packetSize, minPossibleDelta,
+				kernelToUserLatency);
+	}
+
+	/**
+	 * Analyzes a round of trains and estimates the capacity, using the send times embedded in the packets, if any.
+	 * 
+	 * @param allSendTimestamps
+	 *            the send times of each train, or null if the sender did not embed them
+	 */
+	protected void estimateCapacity(CapacityData data, long[][] allTimestamps, long[][] allSendTimestamps,
+			int tcount, int trainLength, int packetSize, long minPossibleDelta, long kernelToUserLatency)
+			throws FileNotFoundException
 	{
 		for (int tt = 0; tt < tcount; tt++) {
-			int[] timestamps = allTimestamps[tt];
-			int[] deltas = calculateDeltas(timestamps, trainLength);
-			int[][] jumps = calculateJumpsAndPlateaus(deltas, minPossibleDelta, kernelToUserLatency);
+			analyzeTrain(data, allTimestamps[tt], allSendTimestamps == null ? null : allSendTimestamps[tt],
+					trainLength, packetSize, minPossibleDelta, kernelToUserLatency);
+		}
+		estimateRound(data, tcount, trainLength, packetSize);
+	}
+
+	/**
+	 * Calculates the pair capacities and the ADR of a single train, adding them to the given data. All times are in
+	 * nanoseconds.
+	 * 
+	 * @param sendTimestamps
+	 *            the send times embedded in the packets, or null if the sender did not embed them
+	 */
+	protected void analyzeTrain(CapacityData data, long[] timestamps, long[] sendTimestamps, int trainLength,
+			int packetSize, long minPossibleDelta, long kernelToUserLatency) throws FileNotFoundException
+	{
+		long[] deltas = calculateDeltas(timestamps, trainLength);
+		long[] sendDeltas = sendTimestamps == null ? null : calculateDeltas(sendTimestamps, trainLength);
+		int[][] jumps = calculateJumpsAndPlateaus(deltas, sendDeltas, minPossibleDelta, kernelToUserLatency);
+
+		if (Stats.COMPILED_IN && stats.isEnabled()) {
+			if (!stats.isBinaryTrace()) {
+				stats.writePlotData("deltas%d", toMicroseconds(deltas));
+				stats.writePlotData("deltadeltas%d", toMicroseconds(calculateDeltas(deltas, trainLength)));
+				if (sendTimestamps != null) {
+					stats.writePlotData("owdv%d",
+							toMicroseconds(calculateDelayVariations(timestamps, sendTimestamps, trainLength)));
+				}
+			}
+			stats.writePerMeasurementJumps(timestamps, jumps);
+		}
 
-			Stats.writePlotData("deltas%d", deltas);
-			Stats.writePlotData("deltadeltas%d", calculateDeltas(deltas, trainLength));
-			Stats.writePerMeasurementJumps(timestamps, jumps);
+		double[] pairCaps = calculateCapacitiesFromFilteredDeltas(deltas, sendDeltas, jumps, packetSize,
+				minPossibleDelta);
+		data.pairCapacities.addAll(pairCaps);
+		if (data.pairModeEstimator != null) {
+			data.pairModeEstimator.add(pairCaps);
+		}
+
+		double[] adrCaps = calculateCapacityFromAdr(timestamps, sendDeltas, jumps, trainLength, packetSize,
+				minPossibleDelta);
+		data.adrCapacities.addAll(adrCaps);
+		if (data.adrModeEstimator != null) {
+			data.adrModeEstimator.add(adrCaps);
+		}
+	}
 
-			double[] pairCaps = calculateCapacitiesFromFilteredDeltas(deltas, jumps, packetSize);
-			Arrays.sort(pairCaps);
-			data.pairCapacities = ArrayHelper.mergeSortedArrays(data.pairCapacities, pairCaps);
+	/**
+	 * Calculates the modes of the given capacities within the configured work budget.
+	 */
+	private MathHelper.Mode[] calculateModes(SortedDoubleMultiset capacities, double binWidth, String name)
+	{
+		MathHelper.WorkBudget budget = new MathHelper.WorkBudget(maxModeScannedValues, maxModeExtractionTime);
+		MathHelper.Mode[] modes = MathHelper.calculateModes(capacities.toArray(), binWidth,
+				estimationParameters.binCountTolerance, budget);
+		if (budget.isExhausted()) {
+			sink.debug("Mode extraction budget exhausted for " + name + ": " + modes.length + " modes found.");
+		}
+		return modes;
+	}
 
-			double[] adrCaps = calculateCapacityFromAdr(timestamps, jumps, trainLength, packetSize);
-			Arrays.sort(adrCaps);
-			data.adrCapacities = ArrayHelper.mergeSortedArrays(data.adrCapacities, adrCaps);
+	/**
+	 * Ends a round without a new estimate. The confidence interval is cleared, otherwise the interval of an older
+	 * round would be saved to the statistics and compared with the next one.
+	 */
+	private void setNoEstimate(CapacityData data, String status)
+	{
+		data.status = status;
+		if (convergenceDetector != null) {
+			convergenceDetector.reset(data);
 		}
+	}
+
+	/**
+	 * Updates the capacity estimate with the trains of a round, already analyzed with
+	 * {@link #analyzeTrain(CapacityData, long[], long[], int, int, long, long)}.
+	 */
+	protected void estimateRound(CapacityData data, int tcount, int trainLength, int packetSize)
+			throws FileNotFoundException
+	{
 		data.numberOfTrains += tcount;
 		data.totalBytesSent += tcount * trainLength * packetSize;
+		// Set again below if there is an estimate
+		data.converged = false;
 
-		data.binWidth = MathHelper.calculateBinWidth(data.pairCapacities);
-		data.capacityModes = MathHelper.calculateModes(data.pairCapacities, data.binWidth);
+		if (data.pairModeEstimator != null) {
+			data.pairModeEstimator.setBinWidth(MathHelper.calculateBinWidth(data.pairCapacities), data.pairCapacities);
+			data.binWidth = data.pairModeEstimator.getBinWidth();
+			data.capacityModes = data.pairModeEstimator.getModes();
+		}
+		else {
+			data.binWidth = MathHelper.calculateBinWidth(data.pairCapacities);
+			data.capacityModes = calculateModes(data.pairCapacities, data.binWidth, "pair capacities");
+		}
 
-		data.adrBinWidth = MathHelper.calculateBinWidth(data.adrCapacities);
-		data.adrModes = MathHelper.calculateModes(data.adrCapacities, data.adrBinWidth);
+		if (data.adrModeEstimator != null) {
+			data.adrModeEstimator.setBinWidth(MathHelper.calculateBinWidth(data.adrCapacities), data.adrCapacities);
+			data.adrBinWidth = data.adrModeEstimator.getBinWidth();
+			data.adrModes = data.adrModeEstimator.getModes();
+		}
+		else {
+			data.adrBinWidth = MathHelper.calculateBinWidth(data.adrCapacities);
+			data.adrModes = calculateModes(data.adrCapacities, data.adrBinWidth, "ADR capacities");
+		}
 
-		Stats.writePlotData("paircaps@%d", MathHelper.calculateDistribution(data.pairCapacities, data.binWidth),
-				data.binWidth);
-		Stats.writePlotData("adrcaps@%d", MathHelper.calculateDistribution(data.adrCapacities, data.adrBinWidth),
-				data.adrBinWidth);
+		if (Stats.COMPILED_IN && stats.isEnabled()) {
+			stats.writePlotData("paircaps@%d", MathHelper.calculateDistribution(data.pairCapacities, data.binWidth),
+					data.binWidth);
+			stats.writePlotData("adrcaps@%d",
+					MathHelper.calculateDistribution(data.adrCapacities, data.adrBinWidth), data.adrBinWidth);
 
-		Stats.writeModes("paircaps@%d", data.capacityModes);
-		Stats.writeModes("adrcaps@%d", data.adrModes);
+			stats.writeModes("paircaps@%d", data.capacityModes);
+			stats.writeModes("adrcaps@%d", data.adrModes);
+		}
 
-		if (data.pairCapacities.length == 0) {
-			data.status = "No pair capacities.";
+		if (data.pairCapacities.size() == 0) {
+			setNoEstimate(data, "No pair capacities.");
 			return;
 		}
-		if (data.adrCapacities.length == 0) {
-			data.status = "No ADR capacities.";
+		if (data.adrCapacities.size() == 0) {
+			setNoEstimate(data, "No ADR capacities.");
 			return;
 		}
 
 		// Wait to gather at least a certain number of capacities
-		if (data.pairCapacities.length < MIN_REQUIRED_PAIR_CAPACITIES) {
-			data.status = "No enough pair capacities (min required: " + MIN_REQUIRED_PAIR_CAPACITIES + ").";
+		int minRequiredPairCapacities = estimationParameters.minRequiredPairCapacities;
+		if (data.pairCapacities.size() < minRequiredPairCapacities) {
+			setNoEstimate(data, "No enough pair capacities (min required: " + minRequiredPairCapacities + ").");
 			return;
 		}
 
 		if (data.adrModes.length == 0) {
 			// It happens sometimes
-			data.status = "No ADR modes.";
+			setNoEstimate(data, "No ADR modes.");
 			return;
 		}
 
@@ -594,6 +1223,7 @@ public class SmartPathrate implements IPathrate
 			}
 		}
 		data.adrValue = (mode.modeLowerValue + mode.modeUpperValue) / 2.0;
+		MathHelper.Mode adrMode = mode;
 
 		// ...and estimate capacity
 
@@ -634,12 +1264,23 @@ public class SmartPathrate implements IPathrate
 			data.status = "Capacity estimation from pair capacities.";
 		}
 
+		if (convergenceDetector != null) {
+			if (mode == null) {
+				convergenceDetector.update(data, data.adrCapacities, adrMode.bellLowerThreshold,
+						adrMode.bellUpperThreshold);
+			}
+			else {
+				convergenceDetector.update(data, data.pairCapacities, mode.bellLowerThreshold,
+						mode.bellUpperThreshold);
+			}
+		}
+
 		data.done = false;
 	}
 
-	protected static int[] calculateDeltas(int[] timestamps, int trainLength)
+	protected static long[] calculateDeltas(long[] timestamps, int trainLength)
 	{
-		int[] deltas = new int[trainLength];
+		long[] deltas = new long[trainLength];
 		for (int i = trainLength - 1; i > 0; i--) {
 			deltas[i] = timestamps[i] - timestamps[i - 1];
 		}
@@ -647,23 +1288,75 @@ public class SmartPathrate implements IPathrate
 		return deltas;
 	}
 
+	/**
+	 * Calculates the one-way delay variation of each packet, i.e. its one-way delay minus the minimum one of the
+	 * train. The offset between the clocks of the sender and of the receiver cancels out.
+	 */
+	protected static long[] calculateDelayVariations(long[] timestamps, long[] sendTimestamps, int trainLength)
+	{
+		long[] variations = new long[trainLength];
+		long minDelay = Long.MAX_VALUE;
+		for (int i = 0; i < trainLength; i++) {
+			variations[i] = timestamps[i] - sendTimestamps[i];
+			minDelay = Math.min(minDelay, variations[i]);
+		}
+		for (int i = 0; i < trainLength; i++) {
+			variations[i] -= minDelay;
+		}
+		return variations;
+	}
+
+	/**
+	 * Checks whether the sender spaced the given pair more than the minimum possible delta, so that its dispersion
+	 * may not be caused by the path.
+	 */
+	private static boolean isSenderGap(long[] sendDeltas, int i, long minPossibleDelta)
+	{
+		return sendDeltas != null && sendDeltas[i] > minPossibleDelta;
+	}
+
+	private static int[] toMicroseconds(long[] times)
+	{
+		int[] result = new int[times.length];
+		for (int i = 0; i < times.length; i++) {
+			result[i] = (int) (times[i] / 1000);
+		}
+		return result;
+	}
+
 	/**
 	 * @param deltas
-	 *            an array containing the measured dispersions between consecutive packets
+	 *            an array containing the measured dispersions (in nanoseconds) between consecutive packets
 	 * @param minPossibleDelta
-	 *            a value (in microseconds) specifying the minimum possible delta in according to the current
+	 *            a value (in nanoseconds) specifying the minimum possible delta in according to the current
 	 *            interface's speed
 	 * @param kernelToUserLatency
-	 *            an approximated value of the kernel-to-user latency
+	 *            an approximated value of the kernel-to-user latency (in nanoseconds)
 	 * @return
 	 */
-	protected int[][] calculateJumpsAndPlateaus(int[] deltas, int minPossibleDelta, int kernelToUserLatency)
+	protected int[][] calculateJumpsAndPlateaus(long[] deltas, long minPossibleDelta, long kernelToUserLatency)
+	{
+		return calculateJumpsAndPlateaus(deltas, null, minPossibleDelta, kernelToUserLatency);
+	}
+
+	/**
+	 * Detects jumps and plateaus as {@link #calculateJumpsAndPlateaus(long[], long, long)}, except that a delta
+	 * explained by a gap at the sender (i.e. not exceeding the send delta by more than the tolerated kernel-to-user
+	 * latency variation) is not a jump.
+	 * 
+	 * @param sendDeltas
+	 *            the dispersions (in nanoseconds) between consecutive packets at the sender, or null if unknown
+	 */
+	protected int[][] calculateJumpsAndPlateaus(long[] deltas, long[] sendDeltas, long minPossibleDelta,
+			long kernelToUserLatency)
 	{
 		int count = 0;
 		int[] jumps = new int[deltas.length];
 		int[] plateaus = new int[deltas.length];
 		int prevIndex = deltas.length - 1; // the last packet of a plateau
 		int outOfProfile = 0;
+		double maxktu = estimationParameters.maxKernelToUserLatencyVariation;
+		double jumpThreshold = estimationParameters.kernelToUserLatencyJumpFactor * kernelToUserLatency;
 		for (int i = deltas.length - 2; i >= 0; i--) {
 			// System.out.format("delta[%d] == %d:  -->  ", i, deltas[i]);
 			if (i == 0) {
@@ -672,8 +1365,12 @@ public class SmartPathrate implements IPathrate
 				// System.out.println("continue because not greater than minPossibleDelta");
 				continue;
 			}
-			else if (deltas[i] <= 5 * kernelToUserLatency) {
-				double maxktu = 1.5;
+			else if (isSenderGap(sendDeltas, i, minPossibleDelta)
+					&& deltas[i] - sendDeltas[i] <= maxktu * kernelToUserLatency) {
+				// Spaced by the sender, not by the receiver
+				continue;
+			}
+			else if (deltas[i] <= jumpThreshold) {
 				if (deltas[i] - deltas[i - 1] <= maxktu * kernelToUserLatency) {
 					// System.out.println("continue");
 					continue;
@@ -709,27 +1406,39 @@ public class SmartPathrate implements IPathrate
 		return result;
 	}
 
-	private static double[] calculateCapacitiesFromFilteredDeltas(int[] deltas, int[][] jumps, int packetSize)
+	private static double[] calculateCapacitiesFromFilteredDeltas(long[] deltas, long[] sendDeltas, int[][] jumps,
+			int packetSize, long minPossibleDelta)
 	{
 		double[] caps = new double[deltas.length - 1];
 		int count = 0;
 		int j = 1;
 		for (int i = 0; i < jumps[0].length; i++) {
 			for (; j < jumps[0][i]; j++) {
-				caps[count++] = (packetSize * 8) / deltas[j];
+				if (!isSenderGap(sendDeltas, j, minPossibleDelta)) {
+					caps[count++] = (packetSize * 8 * 1000L) / deltas[j];
+				}
 			}
 			j += jumps[1][i];
 		}
 		for (; j < deltas.length; j++) {
-			caps[count++] = (packetSize * 8) / deltas[j];
+			if (!isSenderGap(sendDeltas, j, minPossibleDelta)) {
+				caps[count++] = (packetSize * 8 * 1000L) / deltas[j];
+			}
 		}
 		double[] result = new double[count];
 		System.arraycopy(caps, 0, result, 0, count);
 		return result;
 	}
 
-	private static double[] calculateCapacityFromAdr(int[] timestamps, int[][] jumps, int trainLength, int packetSize)
+	private static double[] calculateCapacityFromAdr(long[] timestamps, long[] sendDeltas, int[][] jumps,
+			int trainLength, int packetSize, long minPossibleDelta)
 	{
+		// A gap at the sender stretches the dispersion of the whole train
+		for (int i = 1; i < trainLength; i++) {
+			if (isSenderGap(sendDeltas, i, minPossibleDelta)) {
+				return new double[0];
+			}
+		}
 		if (jumps[0].length > 0) {
 			// Skip if there is a jump at the beginning or at the end of the
 			// measurement
@@ -739,7 +1448,8 @@ public class SmartPathrate implements IPathrate
 				return new double[0];
 			}
 		}
-		return new double[] { ((trainLength - 1) * packetSize * 8) / (timestamps[trainLength - 1] - timestamps[0]) };
+		long dispersion = timestamps[trainLength - 1] - timestamps[0];
+		return new double[] { ((trainLength - 1) * packetSize * 8 * 1000L) / dispersion };
 	}
 
 	@Override
@@ -747,4 +1457,10 @@ public class SmartPathrate implements IPathrate
 	{
 		return capacityData;
 	}
+
+	@Override
+	public CapacitySnapshot getCapacitySnapshot()
+	{
+		return capacitySnapshot;
+	}
 }
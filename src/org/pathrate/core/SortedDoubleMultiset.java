@@ -0,0 +1,224 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+
+/**
+ * A growable sorted multiset of doubles. Values are kept in sorted chunks of bounded size, so that an insertion only
+ * shifts the values of one chunk (a chunk is split in two when it gets full) instead of copying the whole set, and
+ * values can be retrieved by rank without flattening the chunks.
+ */
+public class SortedDoubleMultiset
+{
+	private static final int CHUNK_CAPACITY = 512;
+
+	private double[][] chunks = new double[4][];
+	private int[] chunkSizes = new int[4];
+	private int chunkCount;
+	private int size;
+
+	// Number of values before each chunk, rebuilt lazily after insertions
+	private int[] chunkOffsets = new int[4];
+	private boolean offsetsValid = true;
+
+	/**
+	 * Retrieves the number of values in the set.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Adds a value to the set.
+	 */
+	public void add(double value)
+	{
+		if (chunkCount == 0) {
+			insertChunk(0, new double[CHUNK_CAPACITY], 0);
+		}
+		// Find the first chunk whose last value is greater than the new value
+		int low = 0, high = chunkCount - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (chunks[middle][chunkSizes[middle] - 1] > value) {
+				high = middle;
+			}
+			else {
+				low = middle + 1;
+			}
+		}
+		int c = low;
+		if (chunkSizes[c] == CHUNK_CAPACITY) {
+			splitChunk(c);
+			if (value >= chunks[c + 1][0]) {
+				c++;
+			}
+		}
+		double[] chunk = chunks[c];
+		int position = upperBound(chunk, chunkSizes[c], value);
+		System.arraycopy(chunk, position, chunk, position + 1, chunkSizes[c] - position);
+		chunk[position] = value;
+		chunkSizes[c]++;
+		size++;
+		offsetsValid = false;
+	}
+
+	/**
+	 * Adds all the given values to the set.
+	 */
+	public void addAll(double[] values)
+	{
+		for (double value : values) {
+			add(value);
+		}
+	}
+
+	/**
+	 * Retrieves the value with the given rank, i.e. the value that would be at the given index if the set were a
+	 * sorted array.
+	 *
+	 * @param rank
+	 *            a number between 0 (the minimum) and size() - 1 (the maximum)
+	 * @return the value with the given rank
+	 */
+	public double get(int rank)
+	{
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException("Rank: " + rank + ", size: " + size);
+		}
+		updateOffsets();
+		// Find the last chunk starting at or before the rank
+		int low = 0, high = chunkCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (chunkOffsets[middle] <= rank) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return chunks[low][rank - chunkOffsets[low]];
+	}
+
+	/**
+	 * Retrieves the number of values in the set strictly less than the given value.
+	 */
+	public int rank(double value)
+	{
+		updateOffsets();
+		// Find the first chunk whose last value is not less than the value
+		int low = 0, high = chunkCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (chunks[middle][chunkSizes[middle] - 1] < value) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		if (low == chunkCount) {
+			return size;
+		}
+		return chunkOffsets[low] + lowerBound(chunks[low], chunkSizes[low], value);
+	}
+
+	/**
+	 * Retrieves the minimum value, or NaN if the set is empty.
+	 */
+	public double min()
+	{
+		return size == 0 ? Double.NaN : chunks[0][0];
+	}
+
+	/**
+	 * Retrieves the maximum value, or NaN if the set is empty.
+	 */
+	public double max()
+	{
+		return size == 0 ? Double.NaN : chunks[chunkCount - 1][chunkSizes[chunkCount - 1] - 1];
+	}
+
+	/**
+	 * Retrieves all the values, sorted in increasing order.
+	 */
+	public double[] toArray()
+	{
+		double[] result = new double[size];
+		int count = 0;
+		for (int c = 0; c < chunkCount; c++) {
+			System.arraycopy(chunks[c], 0, result, count, chunkSizes[c]);
+			count += chunkSizes[c];
+		}
+		return result;
+	}
+
+	private void splitChunk(int c)
+	{
+		double[] chunk = chunks[c];
+		int half = chunkSizes[c] / 2;
+		double[] newChunk = new double[CHUNK_CAPACITY];
+		System.arraycopy(chunk, half, newChunk, 0, chunkSizes[c] - half);
+		insertChunk(c + 1, newChunk, chunkSizes[c] - half);
+		chunkSizes[c] = half;
+	}
+
+	private void insertChunk(int position, double[] chunk, int chunkSize)
+	{
+		if (chunkCount == chunks.length) {
+			chunks = Arrays.copyOf(chunks, 2 * chunkCount);
+			chunkSizes = Arrays.copyOf(chunkSizes, 2 * chunkCount);
+			chunkOffsets = new int[2 * chunkCount];
+		}
+		System.arraycopy(chunks, position, chunks, position + 1, chunkCount - position);
+		System.arraycopy(chunkSizes, position, chunkSizes, position + 1, chunkCount - position);
+		chunks[position] = chunk;
+		chunkSizes[position] = chunkSize;
+		chunkCount++;
+		offsetsValid = false;
+	}
+
+	private void updateOffsets()
+	{
+		if (offsetsValid) {
+			return;
+		}
+		int offset = 0;
+		for (int c = 0; c < chunkCount; c++) {
+			chunkOffsets[c] = offset;
+			offset += chunkSizes[c];
+		}
+		offsetsValid = true;
+	}
+
+	private static int lowerBound(double[] values, int count, double value)
+	{
+		int low = 0, high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < value) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static int upperBound(double[] values, int count, double value)
+	{
+		int low = 0, high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] <= value) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
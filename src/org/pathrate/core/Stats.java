@@ -1,182 +1,120 @@
 package org.pathrate.core;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Locale;
 
+/**
+ * Saves statistics as LaTeX macros to a default {@link StatsRecorder}, shared by the whole process. It is meant for a
+ * single measurement at a time: concurrent measurements should each be given their own recorder (see
+ * {@link SmartPathrate#setStatsRecorder(StatsRecorder)}), otherwise their statistics are mixed in the same files.
+ */
 public class Stats
 {
+	/**
+	 * Whether statistics are compiled in. When false, the blocks guarded by this constant are removed by the compiler,
+	 * and no recorder saves anything.
+	 */
+	public static final boolean COMPILED_IN = true;
+
 	// Use dot as decimal separator
 	public static Locale locale = Locale.US;
 
-	public static boolean statisticsEnabled = true;
+	/**
+	 * Disables the statistics of all the recorders when false.
+	 */
+	public static volatile boolean statisticsEnabled = true;
 
-	private static File root = new File(".");
-	private static File overriddenResultsFolder;
-	private static File folder;
-	private static FileOutputStream foMeasurements;
-	private static FileOutputStream foParams;
-	private static FileOutputStream foResults;
-	private static PrintWriter writerMeasurements;
-	private static PrintWriter writerParams;
-	private static PrintWriter writerResults;
+	private static final StatsRecorder defaultRecorder = new StatsRecorder();
 
-	private static HashMap<String, Integer> map = new HashMap<String, Integer>();
+	/**
+	 * Retrieves the recorder written by the static methods of this class.
+	 */
+	public static StatsRecorder getDefault()
+	{
+		return defaultRecorder;
+	}
+
+	public static boolean isEnabled()
+	{
+		return defaultRecorder.isEnabled();
+	}
 
 	/**
 	 * Sets the root folder where all statistics will be saved. It takes effect only before any write operation. If this
 	 * method is not invoked, then the root folder is assumed to be the working directory
-	 * 
+	 *
 	 * @param rootFolder
 	 *            a string containing the full path of the root folder
 	 */
 	public static void setRootFolder(String rootFolder)
 	{
-		root = new File(rootFolder);
+		defaultRecorder.setRootFolder(rootFolder);
 	}
 
 	public static void setResultsFolder(String folder)
 	{
-		overriddenResultsFolder = new File(folder);
+		defaultRecorder.setResultsFolder(folder);
 	}
 
-	public static void reset() throws IOException
+	/**
+	 * @see StatsRecorder#setBinaryTrace(boolean)
+	 */
+	public static void setBinaryTrace(boolean enabled)
 	{
-		if (writerMeasurements != null) {
-			writerMeasurements.close();
-			writerMeasurements = null;
-		}
-		if (writerParams != null) {
-			writerParams.close();
-			writerParams = null;
-		}
-		if (writerResults != null) {
-			writerResults.close();
-			writerResults = null;
-		}
-		if (foMeasurements != null) {
-			foMeasurements.close();
-			foMeasurements = null;
-		}
-		if (foParams != null) {
-			foParams.close();
-			foParams = null;
-		}
-		if (foResults != null) {
-			foResults.close();
-			foResults = null;
-		}
-		folder = null;
-		map.clear();
+		defaultRecorder.setBinaryTrace(enabled);
 	}
 
-	private static void checkMainFolderCreated()
+	public static boolean isBinaryTrace()
 	{
-		if (folder != null) {
-			return;
-		}
-		Calendar cal = Calendar.getInstance();
-		int year = cal.get(Calendar.YEAR);
-		int month = cal.get(Calendar.MONTH);
-		int day = cal.get(Calendar.DAY_OF_MONTH);
-		String directory = String.format(locale, "%d.%02d.%02d", year, (month + 1), day);
-
-		for (int i = 1;; i++) {
-			folder = new File(root, directory + "-" + i);
-			if (!folder.exists()) break;
-		}
-		folder.mkdir();
+		return defaultRecorder.isBinaryTrace();
 	}
 
-	private static void checkMeasurementsCreated() throws FileNotFoundException
+	/**
+	 * @see StatsRecorder#setAsynchronous(boolean)
+	 */
+	public static void setAsynchronous(boolean asynchronous) throws IOException
 	{
-		if (writerMeasurements == null) {
-			checkMainFolderCreated();
-			File file = new File(folder, "measurements.tex");
-			foMeasurements = new FileOutputStream(file, false);
-			writerMeasurements = new PrintWriter(foMeasurements);
-		}
+		defaultRecorder.setAsynchronous(asynchronous);
 	}
 
-	private static void checkParamsCreated() throws FileNotFoundException
+	public static boolean isAsynchronous()
 	{
-		if (writerParams == null) {
-			checkMainFolderCreated();
-			File file = new File(folder, "params.tex");
-			foParams = new FileOutputStream(file, false);
-			writerParams = new PrintWriter(foParams);
-		}
+		return defaultRecorder.isAsynchronous();
 	}
 
-	private static void checkResultsCreated() throws FileNotFoundException
+	public static void flush() throws IOException
 	{
-		if (writerResults == null) {
-			File file;
-			if (overriddenResultsFolder == null) {
-				checkMainFolderCreated();
-				file = new File(folder, "results.tex");
-			}
-			else {
-				file = new File(overriddenResultsFolder, "results.tex");
-			}
-			foResults = new FileOutputStream(file, false);
-			writerResults = new PrintWriter(foResults);
-		}
+		defaultRecorder.flush();
 	}
 
-	private static void writePlotData(PrintWriter writer, String identifier, int[] values, boolean subtractFirst,
-			double xMultiplier) throws FileNotFoundException
+	public static void reset() throws IOException
 	{
-		int zero = subtractFirst && values.length > 0 ? values[0] : 0;
-		writer.println("\\measurement{" + getIndentifier(identifier) + "}{");
-		String format = xMultiplier == Math.rint(xMultiplier) ? " %.0f\t%d \\\\" : " %.3f\t%d \\\\";
-		for (int i = 0; i < values.length; i++) {
-			writer.format(locale, format, (i * xMultiplier), (values[i] - zero));
-			writer.println();
-		}
-		writer.println("}");
-		writer.flush();
+		defaultRecorder.reset();
 	}
 
-	private static void writeListData(PrintWriter writer, String identifier, String[] items)
+	//
+	// Measurements
+	//
+
+	public static void saveTimestamps(long[] timestamps) throws FileNotFoundException
 	{
-		writer.print("\\@namedef{" + getIndentifier(identifier) + "}{");
-		for (int i = 0; i < items.length; i++) {
-			if (i > 0) writer.print(",");
-			writer.println();
-			writer.print(" " + items[i]);
-		}
-		writer.println();
-		writer.println("}");
-		writer.flush();
+		defaultRecorder.saveTimestamps(timestamps);
 	}
 
-	private static String getIndentifier(String identifier)
+	public static void saveTimestamps(long[] timestamps, int count) throws FileNotFoundException
 	{
-		int index = 0;
-		if (map.containsKey(identifier)) {
-			index = (int) map.get(identifier);
-		}
-		map.put(identifier, index + 1);
-		return String.format(locale, identifier, index);
+		defaultRecorder.saveTimestamps(timestamps, count);
 	}
 
-	//
-	// Measurements
-	//
+	public static void saveTrain(TrainRecord train) throws FileNotFoundException
+	{
+		defaultRecorder.saveTrain(train);
+	}
 
-	public static void saveTimestamps(int[] timestamps) throws FileNotFoundException
+	public static void saveEndOfRound(int round, int trainCount) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkMeasurementsCreated();
-		writePlotData(writerMeasurements, "%d", timestamps, true, 1.0);
+		defaultRecorder.saveEndOfRound(round, trainCount);
 	}
 
 	//
@@ -185,23 +123,22 @@ public class Stats
 
 	public static void writeParam(String identifier, Object value) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkParamsCreated();
-		writerParams.println("\\@namedef{" + getIndentifier(identifier) + "}{" + value.toString() + "}");
-		writerParams.flush();
+		defaultRecorder.writeParam(identifier, value);
+	}
+
+	public static void writeParam(String identifier, long value) throws FileNotFoundException
+	{
+		defaultRecorder.writeParam(identifier, value);
+	}
+
+	public static void writeParam(String identifier, double value) throws FileNotFoundException
+	{
+		defaultRecorder.writeParam(identifier, value);
 	}
 
 	public static void writeParam(String identifier, String format, Object... args) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkParamsCreated();
-		writerParams.println("\\@namedef{" + getIndentifier(identifier) + "}{" + String.format(locale, format, args)
-				+ "}");
-		writerParams.flush();
+		defaultRecorder.writeParam(identifier, format, args);
 	}
 
 	//
@@ -210,92 +147,56 @@ public class Stats
 
 	public static void writeResult(String identifier, Object value) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkResultsCreated();
-		writerResults.println("\\@namedef{" + getIndentifier(identifier) + "}{" + value.toString() + "}");
-		writerResults.flush();
+		defaultRecorder.writeResult(identifier, value);
+	}
+
+	public static void writeResult(String identifier, long value) throws FileNotFoundException
+	{
+		defaultRecorder.writeResult(identifier, value);
+	}
+
+	public static void writeResult(String identifier, String format, long value) throws FileNotFoundException
+	{
+		defaultRecorder.writeResult(identifier, format, value);
+	}
+
+	public static void writeResult(String identifier, String format, double value) throws FileNotFoundException
+	{
+		defaultRecorder.writeResult(identifier, format, value);
 	}
 
 	public static void writeResult(String identifier, String format, Object... args) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkResultsCreated();
-		writerResults.println("\\@namedef{" + getIndentifier(identifier) + "}{" + String.format(locale, format, args)
-				+ "}");
-		writerResults.flush();
+		defaultRecorder.writeResult(identifier, format, args);
 	}
 
 	public static void writeRawResults(String data) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkResultsCreated();
-		writerResults.println(data);
-		writerResults.flush();
+		defaultRecorder.writeRawResults(data);
 	}
 
 	public static void writePlotData(String identifier, int[] values) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkResultsCreated();
-		writePlotData(writerResults, identifier, values, false, 1.0);
+		defaultRecorder.writePlotData(identifier, values);
 	}
 
 	public static void writePlotData(String identifier, int[] values, double xMultiplier) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkResultsCreated();
-		writePlotData(writerResults, identifier, values, false, xMultiplier);
+		defaultRecorder.writePlotData(identifier, values, xMultiplier);
 	}
 
 	public static void writeListData(String identifier, String[] items) throws FileNotFoundException
 	{
-		if (!statisticsEnabled) {
-			return;
-		}
-		checkResultsCreated();
-		writeListData(writerResults, identifier, items);
+		defaultRecorder.writeListData(identifier, items);
 	}
 
 	public static void writeModes(String identifier, MathHelper.Mode[] modes) throws FileNotFoundException
 	{
-		String[] items = new String[modes.length];
-		for (int i = 0; i < modes.length; i++) {
-			MathHelper.Mode m = modes[i];
-			double lmode = m.modeLowerValue, rmode = m.modeUpperValue;
-			double lbell = m.bellLowerThreshold, rbell = m.bellUpperThreshold;
-			int mcount = m.modeCount, bcount = m.bellCount;
-			double kurtosis = m.bellKurtosis;
-			// \lmode/\rmode / \lbell/\rbell / \mcount/\bcount / \kurtosis
-			items[i] = String.format(locale, "%.2f/%.2f/%.2f/%.2f/%d/%d/%.2f", lmode, rmode, lbell, rbell, mcount,
-					bcount, kurtosis);
-		}
-		Stats.writeListData("modes@" + identifier, items);
+		defaultRecorder.writeModes(identifier, modes);
 	}
 
-	public static void writePerMeasurementJumps(int[] timestamps, int[][] jumps) throws FileNotFoundException
+	public static void writePerMeasurementJumps(long[] timestamps, int[][] jumps) throws FileNotFoundException
 	{
-		String[] items = new String[jumps[0].length];
-		for (int i = 0; i < jumps[0].length; i++) {
-			int first = jumps[0][i], last = first + jumps[1][i] - 1, prevOrZero = first == 0 ? 0 : first - 1;
-			int yfirst = timestamps[first] - timestamps[0];
-			int ylast = timestamps[last] - timestamps[0];
-			// Don't swap order of operations below
-			int ellipsecenter = ((timestamps[first] - timestamps[0]) + (timestamps[prevOrZero] - timestamps[0])) / 2;
-			int ellipseyradius = timestamps[first] - timestamps[prevOrZero];
-			// \xa / \ya / \xb / \yb / \ellipsecenter / \ellipseyradius
-			items[i] = String.format(locale, "%d/%d/%d/%d/%d/%d", first, yfirst, last, ylast, ellipsecenter,
-					ellipseyradius);
-		}
-		Stats.writeListData("jumps@%d", items);
+		defaultRecorder.writePerMeasurementJumps(timestamps, jumps);
 	}
 }
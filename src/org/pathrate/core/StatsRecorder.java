@@ -0,0 +1,851 @@
+package org.pathrate.core;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Saves statistics about a measurement session as LaTeX macros, in its own folder. Methods are thread-safe, since
+ * trains may be analyzed on a different thread than the one receiving them, but each recorder only locks its own
+ * files: concurrent sessions writing to different recorders never contend nor mix their identifiers. The static
+ * methods of {@link Stats} write to a default recorder shared by the whole process.
+ * <p>
+ * By default each statistic is formatted and flushed to disk by the calling thread. With
+ * {@link #setAsynchronous(boolean)}, calls only enqueue a record (copying any array, since callers reuse them) in a
+ * lock-free ring buffer, and a background thread formats the records in batches, flushing the files once per batch.
+ * Errors of the background thread are thrown by the next call.
+ */
+public class StatsRecorder
+{
+	/**
+	 * A recorder that never saves anything, e.g. for production receivers: its methods return immediately, and
+	 * {@link #setEnabled(boolean)} has no effect.
+	 */
+	public static final StatsRecorder DISABLED = new StatsRecorder(false);
+
+	private final boolean available;
+	private volatile boolean enabled = true;
+
+	private File root = new File(".");
+	private File overriddenResultsFolder;
+	private File folder;
+	private FileOutputStream foMeasurements;
+	private FileOutputStream foParams;
+	private FileOutputStream foResults;
+	private PrintWriter writerMeasurements;
+	private PrintWriter writerParams;
+	private PrintWriter writerResults;
+	private FileOutputStream foTrace;
+	private TraceWriter traceWriter;
+	private volatile boolean binaryTrace;
+
+	// The number of times each identifier has been used
+	private final ConcurrentHashMap<String, AtomicInteger> identifiers =
+			new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final Object asyncLock = new Object();
+	private volatile AsyncWriter asyncWriter;
+
+	public StatsRecorder()
+	{
+		this(true);
+	}
+
+	private StatsRecorder(boolean available)
+	{
+		this.available = available;
+	}
+
+	/**
+	 * Enables or disables this recorder. Statistics are saved only if both this recorder and
+	 * {@link Stats#statisticsEnabled} are enabled.
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Determines whether statistics are saved. Callers should check it before computing values that are only needed by
+	 * the statistics, guarded by {@link Stats#COMPILED_IN} so that the compiler can remove the whole block.
+	 */
+	public boolean isEnabled()
+	{
+		return Stats.COMPILED_IN && available && enabled && Stats.statisticsEnabled;
+	}
+
+	/**
+	 * Sets the root folder where all statistics will be saved. It takes effect only before any write operation. If this
+	 * method is not invoked, then the root folder is assumed to be the working directory
+	 * 
+	 * @param rootFolder
+	 *            a string containing the full path of the root folder
+	 */
+	public synchronized void setRootFolder(String rootFolder)
+	{
+		root = new File(rootFolder);
+	}
+
+	public synchronized void setResultsFolder(String folder)
+	{
+		overriddenResultsFolder = new File(folder);
+	}
+
+	/**
+	 * Sets whether trains saved with {@link #saveTrain(TrainRecord)} are written to a binary trace (see
+	 * {@link TraceWriter}) instead of as LaTeX macros. The per-train deltas, which can be calculated from the trace, are
+	 * not written either. It takes effect only before any write operation.
+	 */
+	public void setBinaryTrace(boolean enabled)
+	{
+		binaryTrace = enabled;
+	}
+
+	public boolean isBinaryTrace()
+	{
+		return binaryTrace;
+	}
+
+	/**
+	 * Enables or disables the asynchronous writing of statistics. When disabled, pending records are written before
+	 * returning. It should be invoked while no measurement is running. When enabled, each receiver measurement waits
+	 * for its statistics to be written and closes the files (see {@link #reset()}) when it ends, since the background
+	 * thread does not keep the process alive: the next measurement writes to a new folder.
+	 */
+	public void setAsynchronous(boolean asynchronous) throws IOException
+	{
+		AsyncWriter writer;
+		synchronized (asyncLock) {
+			if (asynchronous == (asyncWriter != null)) {
+				return;
+			}
+			if (asynchronous) {
+				asyncWriter = new AsyncWriter();
+				return;
+			}
+			writer = asyncWriter;
+			asyncWriter = null;
+		}
+		writer.stop();
+	}
+
+	public boolean isAsynchronous()
+	{
+		return asyncWriter != null;
+	}
+
+	/**
+	 * Waits until all the statistics saved so far are written to disk. It returns immediately if statistics are not
+	 * written asynchronously.
+	 */
+	public void flush() throws IOException
+	{
+		AsyncWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Writes the pending statistics and closes the files. Statistics saved afterwards go to a new folder, with
+	 * identifiers numbered from 0 again.
+	 */
+	public void reset() throws IOException
+	{
+		flush();
+		synchronized (this) {
+			closeAll();
+		}
+	}
+
+	private void closeAll() throws IOException
+	{
+		if (writerMeasurements != null) {
+			writerMeasurements.close();
+			writerMeasurements = null;
+		}
+		if (writerParams != null) {
+			writerParams.close();
+			writerParams = null;
+		}
+		if (writerResults != null) {
+			writerResults.close();
+			writerResults = null;
+		}
+		if (foMeasurements != null) {
+			foMeasurements.close();
+			foMeasurements = null;
+		}
+		if (foParams != null) {
+			foParams.close();
+			foParams = null;
+		}
+		if (foResults != null) {
+			foResults.close();
+			foResults = null;
+		}
+		if (traceWriter != null) {
+			traceWriter.close();
+			traceWriter = null;
+		}
+		if (foTrace != null) {
+			foTrace.close();
+			foTrace = null;
+		}
+		folder = null;
+		identifiers.clear();
+	}
+
+	private void checkMainFolderCreated()
+	{
+		if (folder != null) {
+			return;
+		}
+		Calendar cal = Calendar.getInstance();
+		int year = cal.get(Calendar.YEAR);
+		int month = cal.get(Calendar.MONTH);
+		int day = cal.get(Calendar.DAY_OF_MONTH);
+		String directory = String.format(Stats.locale, "%d.%02d.%02d", year, (month + 1), day);
+
+		for (int i = 1;; i++) {
+			folder = new File(root, directory + "-" + i);
+			// Creating the folder is atomic, thus concurrent recorders sharing the root never get the same one. If it
+			// cannot be created at all, opening the files reports the error.
+			if (folder.mkdir() || !folder.exists()) break;
+		}
+	}
+
+	private void checkMeasurementsCreated() throws FileNotFoundException
+	{
+		if (writerMeasurements == null) {
+			checkMainFolderCreated();
+			File file = new File(folder, "measurements.tex");
+			foMeasurements = new FileOutputStream(file, false);
+			writerMeasurements = new PrintWriter(foMeasurements);
+		}
+	}
+
+	private void checkTraceCreated() throws FileNotFoundException
+	{
+		if (traceWriter == null) {
+			checkMainFolderCreated();
+			File file = new File(folder, "measurements.trace");
+			foTrace = new FileOutputStream(file, false);
+			traceWriter = new TraceWriter(foTrace);
+		}
+	}
+
+	private void checkParamsCreated() throws FileNotFoundException
+	{
+		if (writerParams == null) {
+			checkMainFolderCreated();
+			File file = new File(folder, "params.tex");
+			foParams = new FileOutputStream(file, false);
+			writerParams = new PrintWriter(foParams);
+		}
+	}
+
+	private void checkResultsCreated() throws FileNotFoundException
+	{
+		if (writerResults == null) {
+			File file;
+			if (overriddenResultsFolder == null) {
+				checkMainFolderCreated();
+				file = new File(folder, "results.tex");
+			}
+			else {
+				file = new File(overriddenResultsFolder, "results.tex");
+			}
+			foResults = new FileOutputStream(file, false);
+			writerResults = new PrintWriter(foResults);
+		}
+	}
+
+	private void writePlotData(PrintWriter writer, String identifier, int[] values, int count,
+			boolean subtractFirst, double xMultiplier)
+	{
+		int zero = subtractFirst && count > 0 ? values[0] : 0;
+		writer.println("\\measurement{" + getIndentifier(identifier) + "}{");
+		String format = xMultiplier == Math.rint(xMultiplier) ? " %.0f\t%d \\\\" : " %.3f\t%d \\\\";
+		for (int i = 0; i < count; i++) {
+			writer.format(Stats.locale, format, (i * xMultiplier), (values[i] - zero));
+			writer.println();
+		}
+		writer.println("}");
+	}
+
+	/**
+	 * Writes timestamps (ns) as plot data, in microseconds relative to the first one.
+	 */
+	private void writeTimestamps(PrintWriter writer, String identifier, long[] timestamps, int count)
+	{
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = (int) ((timestamps[i] - timestamps[0]) / 1000);
+		}
+		writePlotData(writer, identifier, values, count, false, 1.0);
+	}
+
+	private void writeListData(PrintWriter writer, String identifier, String[] items)
+	{
+		writer.print("\\@namedef{" + getIndentifier(identifier) + "}{");
+		for (int i = 0; i < items.length; i++) {
+			if (i > 0) writer.print(",");
+			writer.println();
+			writer.print(" " + items[i]);
+		}
+		writer.println();
+		writer.println("}");
+	}
+
+	private String getIndentifier(String identifier)
+	{
+		AtomicInteger counter = identifiers.get(identifier);
+		if (counter == null) {
+			AtomicInteger newCounter = new AtomicInteger();
+			counter = identifiers.putIfAbsent(identifier, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return String.format(Stats.locale, identifier, counter.getAndIncrement());
+	}
+
+	private void flushAll()
+	{
+		if (writerMeasurements != null) {
+			writerMeasurements.flush();
+		}
+		if (writerParams != null) {
+			writerParams.flush();
+		}
+		if (writerResults != null) {
+			writerResults.flush();
+		}
+		if (traceWriter != null) {
+			traceWriter.flush();
+		}
+	}
+
+	/**
+	 * A statistic waiting to be formatted and written.
+	 */
+	private static class Record
+	{
+		static final int TIMESTAMPS = 0;
+		static final int PARAM = 1;
+		static final int RESULT = 2;
+		static final int RAW_RESULTS = 3;
+		static final int PLOT_DATA = 4;
+		static final int LIST_DATA = 5;
+		static final int MODES = 6;
+		static final int JUMPS = 7;
+		static final int TRAIN = 8;
+		static final int END_OF_ROUND = 9;
+
+		final int type;
+		final String identifier;
+		Object value;
+		String format;
+		Object[] args;
+		int[] values;
+		long[] times;
+		int count;
+		double xMultiplier = 1.0;
+		int[][] jumps;
+
+		Record(int type, String identifier)
+		{
+			this.type = type;
+			this.identifier = identifier;
+		}
+
+		/**
+		 * Copies the arrays that the caller may reuse after returning.
+		 */
+		void detach()
+		{
+			if (values != null) {
+				values = Arrays.copyOf(values, count);
+			}
+			if (times != null) {
+				times = Arrays.copyOf(times, type == JUMPS ? times.length : count);
+			}
+			if (args != null) {
+				args = args.clone();
+			}
+			if (jumps != null) {
+				jumps = new int[][] { jumps[0].clone(), jumps[1].clone() };
+			}
+			if (type == TRAIN) {
+				TrainRecord train = (TrainRecord) value, copy = new TrainRecord();
+				copy.trainId = train.trainId;
+				copy.trainLength = train.trainLength;
+				copy.packetSize = train.packetSize;
+				copy.wifiSpeed = train.wifiSpeed;
+				copy.minPossibleDelta = train.minPossibleDelta;
+				copy.kernelToUserLatency = train.kernelToUserLatency;
+				copy.timestamps = Arrays.copyOf(train.timestamps, train.trainLength);
+				copy.round = train.round;
+				value = copy;
+			}
+		}
+	}
+
+	/**
+	 * Writes a record, or queues it if statistics are written asynchronously. Callers check {@link #isEnabled()}
+	 * before creating the record.
+	 */
+	private void submit(Record record) throws FileNotFoundException
+	{
+		AsyncWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.checkError();
+			record.detach();
+			writer.enqueue(record);
+			return;
+		}
+		synchronized (StatsRecorder.this) {
+			write(record);
+			flushAll();
+		}
+	}
+
+	private void write(Record record) throws FileNotFoundException
+	{
+		switch (record.type) {
+			case Record.TIMESTAMPS:
+				checkMeasurementsCreated();
+				writeTimestamps(writerMeasurements, "%d", record.times, record.count);
+				break;
+			case Record.PARAM:
+				checkParamsCreated();
+				writerParams.println("\\@namedef{" + getIndentifier(record.identifier) + "}{" + formatValue(record)
+						+ "}");
+				break;
+			case Record.RESULT:
+				checkResultsCreated();
+				writerResults.println("\\@namedef{" + getIndentifier(record.identifier) + "}{" + formatValue(record)
+						+ "}");
+				break;
+			case Record.RAW_RESULTS:
+				checkResultsCreated();
+				writerResults.println(record.value);
+				break;
+			case Record.PLOT_DATA:
+				checkResultsCreated();
+				writePlotData(writerResults, record.identifier, record.values, record.count, false,
+						record.xMultiplier);
+				break;
+			case Record.LIST_DATA:
+				checkResultsCreated();
+				writeListData(writerResults, record.identifier, (String[]) record.value);
+				break;
+			case Record.MODES:
+				checkResultsCreated();
+				writeListData(writerResults, record.identifier, formatModes((MathHelper.Mode[]) record.value));
+				break;
+			case Record.JUMPS:
+				checkResultsCreated();
+				writeListData(writerResults, record.identifier, formatJumps(record.times, record.jumps));
+				break;
+			case Record.TRAIN:
+				checkTraceCreated();
+				traceWriter.writeTrain((TrainRecord) record.value);
+				break;
+			case Record.END_OF_ROUND:
+				checkTraceCreated();
+				traceWriter.writeEndOfRound((Integer) record.value, record.count);
+				break;
+		}
+	}
+
+	private static String formatValue(Record record)
+	{
+		if (record.format == null) {
+			return record.value.toString();
+		}
+		return String.format(Stats.locale, record.format, record.args);
+	}
+
+	/**
+	 * Formats and writes the records on a background thread. Records are written in batches, and files are flushed
+	 * once per batch.
+	 */
+	private class AsyncWriter implements Runnable
+	{
+		private static final int CAPACITY = 4096;
+		private static final int MAX_BATCH = 256;
+		private static final long IDLE_PARK = 10 * 1000 * 1000; // in nanoseconds
+
+		private final MpscRingBuffer<Record> queue = new MpscRingBuffer<Record>(CAPACITY);
+		private final Thread thread;
+		private final AtomicLong enqueued = new AtomicLong();
+		// Guarded by this
+		private long written;
+		private volatile boolean idle;
+		private volatile boolean running = true;
+		private volatile Exception error;
+
+		AsyncWriter()
+		{
+			thread = new Thread(this, "Stats writer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void enqueue(Record record)
+		{
+			while (!queue.offer(record)) {
+				// The writer is behind: wait for it rather than losing statistics
+				LockSupport.unpark(thread);
+				Thread.yield();
+			}
+			enqueued.incrementAndGet();
+			if (idle) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		void checkError() throws FileNotFoundException
+		{
+			Exception e = error;
+			if (e != null) {
+				error = null;
+				if (e instanceof FileNotFoundException) {
+					throw (FileNotFoundException) e;
+				}
+				throw (RuntimeException) e;
+			}
+		}
+
+		synchronized void flush() throws IOException
+		{
+			long target = enqueued.get();
+			LockSupport.unpark(thread);
+			try {
+				while (written < target && thread.isAlive()) {
+					wait(IDLE_PARK / (1000 * 1000));
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while flushing statistics");
+			}
+			checkError();
+		}
+
+		void stop() throws IOException
+		{
+			running = false;
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while stopping the statistics writer");
+			}
+			checkError();
+		}
+
+		public void run()
+		{
+			while (true) {
+				int batch = 0;
+				synchronized (StatsRecorder.this) {
+					Record record;
+					while (batch < MAX_BATCH && (record = queue.poll()) != null) {
+						try {
+							write(record);
+						}
+						catch (FileNotFoundException e) {
+							if (error == null) {
+								error = e;
+							}
+						}
+						catch (RuntimeException e) {
+							if (error == null) {
+								error = e;
+							}
+						}
+						batch++;
+					}
+					if (batch > 0) {
+						flushAll();
+					}
+				}
+				if (batch > 0) {
+					synchronized (this) {
+						written += batch;
+						notifyAll();
+					}
+					continue;
+				}
+				if (!running) {
+					break;
+				}
+				idle = true;
+				if (queue.isEmpty()) {
+					LockSupport.parkNanos(IDLE_PARK);
+				}
+				idle = false;
+			}
+		}
+	}
+
+	//
+	// Measurements
+	//
+
+	public void saveTimestamps(long[] timestamps) throws FileNotFoundException
+	{
+		saveTimestamps(timestamps, timestamps.length);
+	}
+
+	/**
+	 * Saves the first count timestamps (ns) of the given array, which can be longer than the train it contains. They
+	 * are written in microseconds, relative to the first one.
+	 */
+	public void saveTimestamps(long[] timestamps, int count) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.TIMESTAMPS, "%d");
+		record.times = timestamps;
+		record.count = count;
+		submit(record);
+	}
+
+	/**
+	 * Saves a train, either to the binary trace or as timestamps, depending on {@link #setBinaryTrace(boolean)}.
+	 */
+	public void saveTrain(TrainRecord train) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		if (!binaryTrace) {
+			saveTimestamps(train.timestamps, train.trainLength);
+			return;
+		}
+		Record record = new Record(Record.TRAIN, null);
+		record.value = train;
+		submit(record);
+	}
+
+	/**
+	 * Marks the end of a round in the binary trace, after its trains, so that the rounds can be replayed as they were
+	 * measured. Nothing is saved if the trains are not written to a binary trace.
+	 *
+	 * @param trainCount
+	 *            the number of trains of the round saved with {@link #saveTrain(TrainRecord)}
+	 */
+	public void saveEndOfRound(int round, int trainCount) throws FileNotFoundException
+	{
+		if (!isEnabled() || !binaryTrace) {
+			return;
+		}
+		Record record = new Record(Record.END_OF_ROUND, null);
+		record.value = round;
+		record.count = trainCount;
+		submit(record);
+	}
+
+	//
+	// Params
+	//
+
+	public void writeParam(String identifier, Object value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.PARAM, identifier);
+		record.value = value;
+		submit(record);
+	}
+
+	public void writeParam(String identifier, long value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		writeParam(identifier, (Object) value);
+	}
+
+	public void writeParam(String identifier, double value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		writeParam(identifier, (Object) value);
+	}
+
+	public void writeParam(String identifier, String format, Object... args) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.PARAM, identifier);
+		record.format = format;
+		record.args = args;
+		submit(record);
+	}
+
+	//
+	// Results
+	//
+
+	public void writeResult(String identifier, Object value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.RESULT, identifier);
+		record.value = value;
+		submit(record);
+	}
+
+	public void writeResult(String identifier, long value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		writeResult(identifier, (Object) value);
+	}
+
+	/**
+	 * Writes a formatted number, boxing it only if statistics are saved.
+	 */
+	public void writeResult(String identifier, String format, long value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		writeResult(identifier, format, new Object[] { value });
+	}
+
+	public void writeResult(String identifier, String format, double value) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		writeResult(identifier, format, new Object[] { value });
+	}
+
+	public void writeResult(String identifier, String format, Object... args) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.RESULT, identifier);
+		record.format = format;
+		record.args = args;
+		submit(record);
+	}
+
+	public void writeRawResults(String data) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.RAW_RESULTS, null);
+		record.value = data;
+		submit(record);
+	}
+
+	public void writePlotData(String identifier, int[] values) throws FileNotFoundException
+	{
+		writePlotData(identifier, values, 1.0);
+	}
+
+	public void writePlotData(String identifier, int[] values, double xMultiplier) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.PLOT_DATA, identifier);
+		record.values = values;
+		record.count = values.length;
+		record.xMultiplier = xMultiplier;
+		submit(record);
+	}
+
+	public void writeListData(String identifier, String[] items) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.LIST_DATA, identifier);
+		record.value = items.clone();
+		submit(record);
+	}
+
+	public void writeModes(String identifier, MathHelper.Mode[] modes) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.MODES, "modes@" + identifier);
+		record.value = modes;
+		submit(record);
+	}
+
+	private static String[] formatModes(MathHelper.Mode[] modes)
+	{
+		String[] items = new String[modes.length];
+		for (int i = 0; i < modes.length; i++) {
+			MathHelper.Mode m = modes[i];
+			double lmode = m.modeLowerValue, rmode = m.modeUpperValue;
+			double lbell = m.bellLowerThreshold, rbell = m.bellUpperThreshold;
+			int mcount = m.modeCount, bcount = m.bellCount;
+			double kurtosis = m.bellKurtosis;
+			// \lmode/\rmode / \lbell/\rbell / \mcount/\bcount / \kurtosis
+			items[i] = String.format(Stats.locale, "%.2f/%.2f/%.2f/%.2f/%d/%d/%.2f", lmode, rmode, lbell, rbell,
+					mcount, bcount, kurtosis);
+		}
+		return items;
+	}
+
+	/**
+	 * Writes the jumps of a train, with their positions in microseconds relative to the first timestamp (ns).
+	 */
+	public void writePerMeasurementJumps(long[] timestamps, int[][] jumps) throws FileNotFoundException
+	{
+		if (!isEnabled()) {
+			return;
+		}
+		Record record = new Record(Record.JUMPS, "jumps@%d");
+		record.times = timestamps;
+		record.jumps = jumps;
+		submit(record);
+	}
+
+	private static String[] formatJumps(long[] timestamps, int[][] jumps)
+	{
+		String[] items = new String[jumps[0].length];
+		for (int i = 0; i < jumps[0].length; i++) {
+			int first = jumps[0][i], last = first + jumps[1][i] - 1, prevOrZero = first == 0 ? 0 : first - 1;
+			long yfirst = (timestamps[first] - timestamps[0]) / 1000;
+			long ylast = (timestamps[last] - timestamps[0]) / 1000;
+			// Don't swap order of operations below
+			long ellipsecenter = ((timestamps[first] - timestamps[0]) + (timestamps[prevOrZero] - timestamps[0]))
+					/ 2000;
+			long ellipseyradius = (timestamps[first] - timestamps[prevOrZero]) / 1000;
+			// \xa / \ya / \xb / \yb / \ellipsecenter / \ellipseyradius
+			items[i] = String.format(Stats.locale, "%d/%d/%d/%d/%d/%d", first, yfirst, last, ylast, ellipsecenter,
+					ellipseyradius);
+		}
+		return items;
+	}
+}
@@ -0,0 +1,13 @@
+package org.pathrate.core;
+
+/**
+ * Timestamps packets with {@link System#nanoTime()} when the receiving loop gets them, i.e. in user space. This is
+ * the default source, and the one the kernel-to-user latency is measured against.
+ */
+public class SystemTimestampSource implements ITimestampSource
+{
+	public long getTimestamp(IProbeReceiver receiver)
+	{
+		return System.nanoTime();
+	}
+}
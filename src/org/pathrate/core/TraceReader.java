@@ -0,0 +1,191 @@
+package org.pathrate.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the packet trains of a binary trace written by {@link TraceWriter}. The end-of-round records set the round
+ * of the following trains, and records of unknown type are skipped.
+ */
+public class TraceReader implements Closeable
+{
+	private final InputStream in;
+	private final int version;
+	// The round of the next train
+	private int round;
+	private byte[] body = new byte[256];
+	private int bodyPosition;
+	private int bodyLength;
+
+	/**
+	 * Creates a reader, checking the header of the trace.
+	 *
+	 * @throws IOException
+	 *             if the stream is not a trace or its version is not supported
+	 */
+	public TraceReader(InputStream in) throws IOException
+	{
+		this.in = new BufferedInputStream(in);
+		int magic = 0;
+		for (int i = 0; i < 4; i++) {
+			magic = (magic << 8) | readByte();
+		}
+		if (magic != TraceWriter.MAGIC) {
+			throw new IOException("Not a packet train trace");
+		}
+		version = readByte();
+		if (version != TraceWriter.VERSION) {
+			throw new IOException("Unsupported trace version: " + version);
+		}
+	}
+
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns the number of rounds ended so far, from the last end-of-round record read. Once all the trains are read,
+	 * it is the number of rounds of the trace, including the last rounds without trains.
+	 */
+	public int getRoundCount()
+	{
+		return round;
+	}
+
+	/**
+	 * Reads the next train of the trace.
+	 *
+	 * @return the train, or null if the end of the trace has been reached
+	 * @throws EOFException
+	 *             if the trace is truncated
+	 */
+	public TrainRecord readTrain() throws IOException
+	{
+		while (true) {
+			int type = in.read();
+			if (type < 0) {
+				return null;
+			}
+			int length = readVarint();
+			if (type == TraceWriter.END_OF_ROUND_RECORD) {
+				readBody(length);
+				round = getInt() + 1;
+				continue;
+			}
+			if (type != TraceWriter.TRAIN_RECORD) {
+				skipFully(length);
+				continue;
+			}
+			readBody(length);
+
+			TrainRecord train = new TrainRecord();
+			train.trainId = getInt();
+			train.trainLength = getInt();
+			train.packetSize = getInt();
+			train.wifiSpeed = getInt();
+			train.minPossibleDelta = getLong();
+			train.kernelToUserLatency = getLong();
+			train.timestamps = new long[train.trainLength];
+			long previous = 0;
+			for (int i = 0; i < train.trainLength; i++) {
+				previous += getLong();
+				train.timestamps[i] = previous;
+			}
+			train.round = round;
+			return train;
+		}
+	}
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	private int readByte() throws IOException
+	{
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated trace");
+		}
+		return b;
+	}
+
+	private int readVarint() throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private void readBody(int length) throws IOException
+	{
+		if (body.length < length) {
+			body = new byte[length];
+		}
+		for (int count = 0; count < length;) {
+			int n = in.read(body, count, length - count);
+			if (n < 0) {
+				throw new EOFException("Truncated trace");
+			}
+			count += n;
+		}
+		bodyPosition = 0;
+		bodyLength = length;
+	}
+
+	private void skipFully(int length) throws IOException
+	{
+		while (length > 0) {
+			long n = in.skip(length);
+			if (n <= 0) {
+				readByte();
+				n = 1;
+			}
+			length -= n;
+		}
+	}
+
+	private int getInt() throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (bodyPosition >= bodyLength) {
+				throw new IOException("Malformed train record");
+			}
+			int b = body[bodyPosition++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				// Zigzag decoding
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private long getLong() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			if (bodyPosition >= bodyLength) {
+				throw new IOException("Malformed train record");
+			}
+			int b = body[bodyPosition++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				// Zigzag decoding
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,213 @@
+package org.pathrate.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pathrate.core.IPathrate.CapacityData;
+
+/**
+ * Runs the capacity estimation of {@link SmartPathrate} over the trains of an archived trace, as if they were being
+ * received. The trains are grouped in the rounds recorded in the trace, including the rounds whose trains were all
+ * lost, up to the last round of the trace. The replay stops when the measurement can stop or is done, like a live
+ * measurement. Traces are read with a {@link MappedTraceReader}, decoding each round into the same arrays.
+ * Trains already in memory are never modified, thus they can be shared by concurrent replays.
+ */
+public class TraceReplay
+{
+	/**
+	 * Represents the trains of a trace, read in memory.
+	 */
+	public static class Trace
+	{
+		public List<TrainRecord> trains = new ArrayList<TrainRecord>();
+		/** The number of rounds of the trace, including the rounds without trains */
+		public int roundCount;
+	}
+
+	private final SmartPathrate pathrate;
+
+	/**
+	 * Creates a replay engine.
+	 * 
+	 * @param pathrate
+	 *            an installed instance, whose settings (e.g. incremental modes) are used for the estimation
+	 */
+	public TraceReplay(SmartPathrate pathrate)
+	{
+		this.pathrate = pathrate;
+	}
+
+	/**
+	 * Reads all the trains of a trace in memory.
+	 */
+	public static Trace load(File file) throws IOException
+	{
+		Trace trace = new Trace();
+		MappedTraceReader reader = new MappedTraceReader(file);
+		try {
+			TrainRecord train = new TrainRecord();
+			while (reader.readTrain(train)) {
+				trace.trains.add(train);
+				train = new TrainRecord();
+			}
+			trace.roundCount = reader.getRoundCount();
+		}
+		finally {
+			reader.close();
+		}
+		return trace;
+	}
+
+	/**
+	 * Estimates the capacity from the trains of the given trace.
+	 * 
+	 * @return the data of the estimation
+	 */
+	public CapacityData replay(File trace) throws IOException
+	{
+		final MappedTraceReader reader = new MappedTraceReader(trace);
+		try {
+			return replay(new TrainSource() {
+				public boolean readTrain(TrainRecord train) throws IOException
+				{
+					return reader.readTrain(train);
+				}
+
+				public int getRoundCount()
+				{
+					return reader.getRoundCount();
+				}
+			});
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Estimates the capacity from the trains of a trace read in memory, in the order they were received.
+	 * 
+	 * @return the data of the estimation
+	 */
+	public CapacityData replay(final Trace trace) throws IOException
+	{
+		final List<TrainRecord> trains = trace.trains;
+		return replay(new TrainSource() {
+			private int next;
+
+			public boolean readTrain(TrainRecord train)
+			{
+				if (next == trains.size()) {
+					return false;
+				}
+				TrainRecord source = trains.get(next++);
+				train.trainId = source.trainId;
+				train.trainLength = source.trainLength;
+				train.packetSize = source.packetSize;
+				train.wifiSpeed = source.wifiSpeed;
+				train.minPossibleDelta = source.minPossibleDelta;
+				train.kernelToUserLatency = source.kernelToUserLatency;
+				// Shared, not copied
+				train.timestamps = source.timestamps;
+				train.round = source.round;
+				return true;
+			}
+
+			public int getRoundCount()
+			{
+				return trace.roundCount;
+			}
+		});
+	}
+
+	/**
+	 * Provides the trains to replay.
+	 */
+	private interface TrainSource
+	{
+		/**
+		 * Reads the next train into the given record, possibly reusing its timestamps array.
+		 * 
+		 * @return false if there are no more trains
+		 */
+		boolean readTrain(TrainRecord train) throws IOException;
+
+		/**
+		 * Returns the number of rounds of the trace, once all the trains are read.
+		 */
+		int getRoundCount();
+	}
+
+	private CapacityData replay(TrainSource source) throws IOException
+	{
+		CapacityData data = pathrate.createCapacityData();
+		long[][] round = new long[SmartPathrate.ROUND_SIZE][];
+		TrainRecord train = new TrainRecord();
+		TrainRecord first = new TrainRecord();
+		// No round estimated yet
+		first.round = -1;
+		int count = 0;
+
+		while (true) {
+			train.timestamps = round[count];
+			if (!source.readTrain(train)) {
+				break;
+			}
+			round[count] = train.timestamps;
+			if (count > 0 && train.round != first.round) {
+				// The train starts a new round
+				if (estimateRound(data, round, count, first)) {
+					return data;
+				}
+				long[] timestamps = round[0];
+				round[0] = round[count];
+				round[count] = timestamps;
+				count = 0;
+			}
+			if (count == 0) {
+				// The rounds without trains are estimated anyway, like in the live measurement
+				for (int r = first.round + 1; r < train.round; r++) {
+					if (estimateRound(data, round, 0, first)) {
+						return data;
+					}
+				}
+				first.round = train.round;
+				first.trainLength = train.trainLength;
+				first.packetSize = train.packetSize;
+				first.minPossibleDelta = train.minPossibleDelta;
+				first.kernelToUserLatency = train.kernelToUserLatency;
+			}
+			count++;
+			if (count == round.length) {
+				if (estimateRound(data, round, count, first)) {
+					return data;
+				}
+				count = 0;
+			}
+		}
+		if (count > 0 && estimateRound(data, round, count, first)) {
+			return data;
+		}
+		// The last rounds without trains, recorded by their end-of-round records only
+		for (int r = first.round + 1; r < source.getRoundCount(); r++) {
+			if (estimateRound(data, round, 0, first)) {
+				return data;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Estimates the capacity with a round of trains.
+	 * 
+	 * @return true if the estimation can stop
+	 */
+	private boolean estimateRound(CapacityData data, long[][] round, int count, TrainRecord first) throws IOException
+	{
+		pathrate.estimateCapacity(data, round, count, first.trainLength, first.packetSize, first.minPossibleDelta,
+				first.kernelToUserLatency);
+		return pathrate.canStop(data) || data.done;
+	}
+}
@@ -0,0 +1,164 @@
+package org.pathrate.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes packet trains to a compact binary trace, which can be read back with {@link TraceReader}.
+ * <p>
+ * A trace starts with a header made of the 4-byte {@link #MAGIC} number and a version byte, followed by a sequence
+ * of records. Each record is made of a type byte, the length of its body as a varint and the body itself, so that
+ * readers can skip records they do not know. The body of a train record contains the train parameters as varints,
+ * the first timestamp and then the difference between each timestamp and the previous one. All the integers in a
+ * body are zigzag-encoded varints, thus small values, either positive or negative, take a single byte. Times are in
+ * nanoseconds. An end-of-round record, whose body contains the index of the round and the number of its trains,
+ * follows the trains of each round, including the rounds whose trains were all lost.
+ * <p>
+ * Like {@link java.io.PrintWriter}, this class never throws I/O exceptions: an error can be detected with
+ * {@link #checkError()}.
+ */
+public class TraceWriter implements Closeable
+{
+	/**
+	 * The first bytes of a trace ("PRTR").
+	 */
+	public static final int MAGIC = 0x50525452;
+	public static final int VERSION = 1;
+
+	static final int TRAIN_RECORD = 1;
+	static final int END_OF_ROUND_RECORD = 2;
+
+	private final OutputStream out;
+	private byte[] body = new byte[256];
+	private int bodyLength;
+	private boolean error;
+
+	/**
+	 * Creates a writer, writing the header of the trace to the given stream.
+	 */
+	public TraceWriter(OutputStream out)
+	{
+		this.out = new BufferedOutputStream(out);
+		try {
+			this.out.write(MAGIC >>> 24);
+			this.out.write(MAGIC >>> 16);
+			this.out.write(MAGIC >>> 8);
+			this.out.write(MAGIC);
+			this.out.write(VERSION);
+		}
+		catch (IOException e) {
+			error = true;
+		}
+	}
+
+	/**
+	 * Appends a train to the trace.
+	 */
+	public void writeTrain(TrainRecord train)
+	{
+		bodyLength = 0;
+		putInt(train.trainId);
+		putInt(train.trainLength);
+		putInt(train.packetSize);
+		putInt(train.wifiSpeed);
+		putLong(train.minPossibleDelta);
+		putLong(train.kernelToUserLatency);
+		long previous = 0;
+		for (int i = 0; i < train.trainLength; i++) {
+			putLong(train.timestamps[i] - previous);
+			previous = train.timestamps[i];
+		}
+		writeRecord(TRAIN_RECORD);
+	}
+
+	/**
+	 * Appends the end of a round, after its trains.
+	 *
+	 * @param round
+	 *            the index of the round, starting from 0
+	 * @param trainCount
+	 *            the number of trains of the round written to the trace
+	 */
+	public void writeEndOfRound(int round, int trainCount)
+	{
+		bodyLength = 0;
+		putInt(round);
+		putInt(trainCount);
+		writeRecord(END_OF_ROUND_RECORD);
+	}
+
+	private void writeRecord(int type)
+	{
+		try {
+			out.write(type);
+			writeVarint(bodyLength);
+			out.write(body, 0, bodyLength);
+		}
+		catch (IOException e) {
+			error = true;
+		}
+	}
+
+	public void flush()
+	{
+		try {
+			out.flush();
+		}
+		catch (IOException e) {
+			error = true;
+		}
+	}
+
+	public void close()
+	{
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			error = true;
+		}
+	}
+
+	/**
+	 * Flushes the stream and checks whether an error occurred.
+	 *
+	 * @return true if an error occurred
+	 */
+	public boolean checkError()
+	{
+		flush();
+		return error;
+	}
+
+	private void putInt(int value)
+	{
+		// The zigzag encoding of an int is the same as the one of the long with the same value
+		putLong(value);
+	}
+
+	private void putLong(long value)
+	{
+		if (bodyLength + 10 > body.length) {
+			body = Arrays.copyOf(body, 2 * body.length);
+		}
+		// Zigzag encoding: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			body[bodyLength++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		body[bodyLength++] = (byte) v;
+	}
+
+	private void writeVarint(int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
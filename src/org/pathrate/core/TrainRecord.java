@@ -0,0 +1,37 @@
+package org.pathrate.core;
+
+/**
+ * Represents a packet train as stored in a binary trace, together with the parameters needed to analyze it again.
+ */
+public class TrainRecord
+{
+	public int trainId;
+	/**
+	 * The number of packets, i.e. of valid timestamps.
+	 */
+	public int trainLength;
+	/**
+	 * The size of each packet, including headers (bytes).
+	 */
+	public int packetSize;
+	/**
+	 * The Wi-Fi connection speed when the train was received (Mbps).
+	 */
+	public int wifiSpeed;
+	/**
+	 * The minimum acceptable packet pair dispersion (ns).
+	 */
+	public long minPossibleDelta;
+	/**
+	 * The kernel-to-user latency of the receiver (ns).
+	 */
+	public long kernelToUserLatency;
+	/**
+	 * The arrival times of the packets (ns). The array can be longer than trainLength.
+	 */
+	public long[] timestamps;
+	/**
+	 * The index of the round the train belongs to, read from the end-of-round records of the trace.
+	 */
+	public int round;
+}
@@ -0,0 +1,122 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+
+/**
+ * Summarizes the dispersion of a received train. Instances are immutable. Times are in nanoseconds; the deltas only
+ * consider consecutive packets received in order, and they are 0 when fewer than two packets were received.
+ */
+public final class TrainSummary
+{
+	private final int trainId;
+	private final int round;
+	private final int trainLength;
+	private final int receivedPackets;
+	private final int stalePackets;
+	private final long minDelta;
+	private final long medianDelta;
+	private final long maxDelta;
+	private final long cumulativeDispersion;
+
+	/**
+	 * @param timestamps
+	 *            the arrival times of the packets received in order, which are sorted by this constructor
+	 */
+	TrainSummary(int trainId, int round, int trainLength, int stalePackets, long[] timestamps)
+	{
+		this.trainId = trainId;
+		this.round = round;
+		this.trainLength = trainLength;
+		this.receivedPackets = timestamps.length;
+		this.stalePackets = stalePackets;
+		int count = timestamps.length - 1;
+		if (count <= 0) {
+			minDelta = medianDelta = maxDelta = cumulativeDispersion = 0;
+			return;
+		}
+		cumulativeDispersion = timestamps[count] - timestamps[0];
+		// Deltas are computed in place, the first timestamp is not needed anymore
+		for (int i = 0; i < count; i++) {
+			timestamps[i] = timestamps[i + 1] - timestamps[i];
+		}
+		Arrays.sort(timestamps, 0, count);
+		minDelta = timestamps[0];
+		medianDelta = timestamps[count / 2];
+		maxDelta = timestamps[count - 1];
+	}
+
+	public int getTrainId()
+	{
+		return trainId;
+	}
+
+	/**
+	 * Retrieves the index of the round the train belongs to, starting from 0.
+	 */
+	public int getRound()
+	{
+		return round;
+	}
+
+	/**
+	 * Retrieves the number of packets requested.
+	 */
+	public int getTrainLength()
+	{
+		return trainLength;
+	}
+
+	/**
+	 * Retrieves the number of packets received in order before the train ended or was lost.
+	 */
+	public int getReceivedPackets()
+	{
+		return receivedPackets;
+	}
+
+	/**
+	 * Determines whether all the packets have been received in order, i.e. the train is used for the estimate.
+	 */
+	public boolean isComplete()
+	{
+		return receivedPackets == trainLength;
+	}
+
+	/**
+	 * Retrieves the number of packets of previous trains discarded before requesting this one.
+	 */
+	public int getStalePackets()
+	{
+		return stalePackets;
+	}
+
+	public long getMinDelta()
+	{
+		return minDelta;
+	}
+
+	public long getMedianDelta()
+	{
+		return medianDelta;
+	}
+
+	public long getMaxDelta()
+	{
+		return maxDelta;
+	}
+
+	/**
+	 * Retrieves the time between the arrival of the first and of the last packet received.
+	 */
+	public long getCumulativeDispersion()
+	{
+		return cumulativeDispersion;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Train %d: %d/%d packets, delta %d/%d/%d ns (min/median/max), dispersion %d ns", trainId,
+				receivedPackets, trainLength, minDelta, medianDelta, maxDelta, cumulativeDispersion);
+	}
+}
@@ -0,0 +1,137 @@
+package org.pathrate.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link SortedDoubleMultiset} against a plain sorted array: the values by rank and the ranks of the values,
+ * with many duplicates, runs of duplicates longer than a chunk, and ranks at the edges of the chunks. Compile and run
+ * it together with the sources, e.g.:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out src/org/pathrate/core/*.java test/org/pathrate/core/*.java
+ * java -cp out org.pathrate.core.SortedDoubleMultisetTest
+ * </pre>
+ *
+ * It exits with an error at the first failed check.
+ */
+public class SortedDoubleMultisetTest
+{
+	public static void main(String[] args)
+	{
+		Random random = new Random(1);
+		int checks = 0;
+
+		checkSet(new double[0]);
+		checkSet(new double[] { 1 });
+		checks += 2;
+
+		// Few distinct values, thus many duplicates in the same chunks and across chunks
+		double[] values = new double[5000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(40);
+		}
+		checkSet(values);
+		checks++;
+
+		// Increasing and decreasing insertions, which split the first or the last chunk every time
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 0.5;
+		}
+		checkSet(values);
+		double[] decreasing = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			decreasing[i] = values[values.length - 1 - i];
+		}
+		checkSet(decreasing);
+		checks += 2;
+
+		// A run of equal values much longer than a chunk, surrounded by other values
+		double[] run = new double[3000];
+		for (int i = 0; i < run.length; i++) {
+			run[i] = i % 3 == 0 ? 1 : random.nextDouble() * 2;
+		}
+		checkSet(run);
+		checks++;
+
+		// Random values with a random number of repetitions
+		for (int test = 0; test < 20; test++) {
+			double[] randomValues = new double[1 + random.nextInt(4000)];
+			for (int i = 0; i < randomValues.length; i++) {
+				randomValues[i] = i > 0 && random.nextBoolean() ? randomValues[random.nextInt(i)]
+						: random.nextGaussian() * 1000;
+			}
+			checkSet(randomValues);
+			checks++;
+		}
+
+		System.out.println("Sorted double multiset: " + checks + " sets, OK");
+	}
+
+	/**
+	 * Adds the given values one at a time and checks the set against the sorted values.
+	 */
+	private static void checkSet(double[] values)
+	{
+		SortedDoubleMultiset set = new SortedDoubleMultiset();
+		for (double value : values) {
+			set.add(value);
+		}
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		check(set.size() == sorted.length, "size " + set.size());
+		check(Arrays.equals(set.toArray(), sorted), "values");
+		if (sorted.length > 0) {
+			check(set.min() == sorted[0], "min");
+			check(set.max() == sorted[sorted.length - 1], "max");
+		}
+		else {
+			check(Double.isNaN(set.min()) && Double.isNaN(set.max()), "min and max of an empty set");
+		}
+		for (int i = 0; i < sorted.length; i++) {
+			check(set.get(i) == sorted[i], "value of rank " + i);
+		}
+		// Every value, thus the first and last values of every chunk, and the values just around them
+		for (int i = 0; i < sorted.length; i++) {
+			checkRank(set, sorted, sorted[i]);
+			checkRank(set, sorted, Math.nextUp(sorted[i]));
+			checkRank(set, sorted, Math.nextAfter(sorted[i], Double.NEGATIVE_INFINITY));
+		}
+		checkRank(set, sorted, Double.NEGATIVE_INFINITY);
+		checkRank(set, sorted, Double.POSITIVE_INFINITY);
+		for (int rank : new int[] { -1, sorted.length }) {
+			try {
+				set.get(rank);
+				throw new AssertionError("Rank " + rank + " accepted");
+			}
+			catch (IndexOutOfBoundsException e) {
+			}
+		}
+	}
+
+	private static void checkRank(SortedDoubleMultiset set, double[] sorted, double value)
+	{
+		// The number of values strictly less than the value
+		int expected = 0;
+		int high = sorted.length;
+		while (expected < high) {
+			int middle = (expected + high) >>> 1;
+			if (sorted[middle] < value) {
+				expected = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		int actual = set.rank(value);
+		check(actual == expected, "rank of " + value + ": " + actual + " instead of " + expected);
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.pathrate.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the binary trace format round-trips: trains written with {@link TraceWriter} are read back unchanged by
+ * both {@link TraceReader} and {@link MappedTraceReader}, including negative deltas, values at the varint boundaries
+ * and the rounds set by the end-of-round records. Compile and run it together with the sources, e.g.:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -d out src/org/pathrate/core/*.java test/org/pathrate/core/*.java
+ * java -cp out org.pathrate.core.TraceFormatTest
+ * </pre>
+ *
+ * It exits with an error at the first failed check.
+ */
+public class TraceFormatTest
+{
+	// Values around the boundaries of the zigzag varints (1, 2, ..., 10 bytes)
+	private static final long[] BOUNDARIES = { 0, 1, -1, 63, -64, 64, -65, 8191, -8192, 8192, -8193, 1L << 20,
+			-(1L << 20), Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 55, -(1L << 55), Long.MAX_VALUE, Long.MIN_VALUE };
+
+	public static void main(String[] args) throws IOException
+	{
+		List<TrainRecord> trains = new ArrayList<TrainRecord>();
+		int[] roundSizes = { 30, 0, 20, 10, 0 };
+		Random random = new Random(1);
+		int trainId = Integer.MAX_VALUE - 2;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceWriter writer = new TraceWriter(bytes);
+		for (int round = 0; round < roundSizes.length; round++) {
+			for (int i = 0; i < roundSizes[round]; i++) {
+				TrainRecord train = createTrain(trainId++, trains.size(), random);
+				train.round = round;
+				writer.writeTrain(train);
+				trains.add(train);
+			}
+			writer.writeEndOfRound(round, roundSizes[round]);
+		}
+		check(!writer.checkError(), "write error");
+		writer.close();
+		byte[] trace = bytes.toByteArray();
+
+		TraceReader reader = new TraceReader(new ByteArrayInputStream(trace));
+		check(reader.getVersion() == TraceWriter.VERSION, "version");
+		for (TrainRecord expected : trains) {
+			TrainRecord actual = reader.readTrain();
+			check(actual != null, "missing train " + expected.trainId);
+			checkEquals(expected, actual);
+		}
+		check(reader.readTrain() == null, "extra train");
+		reader.close();
+
+		File file = File.createTempFile("pathrate", ".trace");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(trace);
+			out.close();
+			// A small window forces records to be read across remappings
+			for (long windowSize : new long[] { 4096, trace.length }) {
+				MappedTraceReader mappedReader = new MappedTraceReader(file, windowSize);
+				TrainRecord actual = new TrainRecord();
+				for (TrainRecord expected : trains) {
+					check(mappedReader.readTrain(actual), "missing mapped train " + expected.trainId);
+					checkEquals(expected, actual);
+				}
+				check(!mappedReader.readTrain(actual), "extra mapped train");
+				mappedReader.close();
+			}
+		}
+		finally {
+			file.delete();
+		}
+
+		checkRejected(Arrays.copyOf(trace, trace.length / 2), EOFException.class);
+		byte[] otherVersion = trace.clone();
+		otherVersion[4] = TraceWriter.VERSION + 1;
+		checkRejected(otherVersion, IOException.class);
+		byte[] notTrace = trace.clone();
+		notTrace[0] = 0;
+		checkRejected(notTrace, IOException.class);
+
+		System.out.println("Trace format: " + trains.size() + " trains in " + roundSizes.length + " rounds, "
+				+ trace.length + " bytes, OK");
+	}
+
+	private static TrainRecord createTrain(int trainId, int index, Random random)
+	{
+		TrainRecord train = new TrainRecord();
+		train.trainId = trainId;
+		train.packetSize = 1500;
+		train.wifiSpeed = index % 2 == 0 ? 54 : Integer.MIN_VALUE;
+		train.minPossibleDelta = BOUNDARIES[index % BOUNDARIES.length];
+		train.kernelToUserLatency = -BOUNDARIES[(index + 3) % BOUNDARIES.length];
+		if (index == 0) {
+			// Each boundary as a timestamp, thus as a (wrapping) delta from the previous one
+			train.timestamps = BOUNDARIES.clone();
+		}
+		else {
+			train.timestamps = new long[1 + random.nextInt(300)];
+			long time = random.nextLong();
+			for (int i = 0; i < train.timestamps.length; i++) {
+				// Mostly increasing, with some reordered packets
+				time += random.nextInt(10) == 0 ? -random.nextInt(100000) : random.nextInt(1 << (1 + i % 30));
+				train.timestamps[i] = time;
+			}
+		}
+		train.trainLength = train.timestamps.length;
+		return train;
+	}
+
+	private static void checkEquals(TrainRecord expected, TrainRecord actual)
+	{
+		String train = "train " + expected.trainId + ": ";
+		check(actual.trainId == expected.trainId, train + "id");
+		check(actual.trainLength == expected.trainLength, train + "length");
+		check(actual.packetSize == expected.packetSize, train + "packet size");
+		check(actual.wifiSpeed == expected.wifiSpeed, train + "Wi-Fi speed");
+		check(actual.minPossibleDelta == expected.minPossibleDelta, train + "minimum delta");
+		check(actual.kernelToUserLatency == expected.kernelToUserLatency, train + "kernel-to-user latency");
+		check(actual.round == expected.round, train + "round " + actual.round);
+		check(Arrays.equals(Arrays.copyOf(actual.timestamps, actual.trainLength), expected.timestamps),
+				train + "timestamps");
+	}
+
+	private static void checkRejected(byte[] trace, Class<? extends IOException> expected)
+	{
+		try {
+			TraceReader reader = new TraceReader(new ByteArrayInputStream(trace));
+			while (reader.readTrain() != null) {
+			}
+		}
+		catch (IOException e) {
+			check(expected.isInstance(e), "unexpected " + e);
+			return;
+		}
+		throw new AssertionError("Trace accepted, " + expected.getSimpleName() + " expected");
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}